@@ -1,19 +1,27 @@
 package com.hmdp.config;
 
+import cn.hutool.core.util.StrUtil;
 import com.hmdp.utils.LoginInteceptor;
+import com.hmdp.utils.OpsInterceptor;
 import com.hmdp.utils.RefreshTokenInteceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private RedisTemplate redisTemplate;
 
+    @Value("${hmdp.ops.admin-ids:}")
+    private String opsAdminIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         //登录拦截器
@@ -24,8 +32,17 @@ public class MvcConfig implements WebMvcConfigurer {
                 "/shop/**",
                 "/shop-type/**",
                 "/upload/**",
-                "/voucher/**"
+                "/voucher/**",
+                "/cache/ready"
         ).order(1);
+        //运维接口拦截器，只允许管理员访问
+        Set<Long> adminIds = StrUtil.split(opsAdminIds, ',', true, true).stream()
+                .map(Long::valueOf).collect(Collectors.toSet());
+        registry.addInterceptor(new OpsInterceptor(adminIds)).addPathPatterns(
+                "/cache/**"
+        ).excludePathPatterns(
+                "/cache/ready"
+        ).order(2);
         //token刷新拦截器
         registry.addInterceptor(new RefreshTokenInteceptor(redisTemplate)).addPathPatterns("/**").order(0);
     }
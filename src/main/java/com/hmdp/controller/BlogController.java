@@ -3,10 +3,12 @@ package com.hmdp.controller;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.service.IBlogService;
+import com.hmdp.utils.PageCursor;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
 
@@ -40,13 +42,20 @@ public class BlogController {
         return blogService.likeBlog(id);
     }
 
+    /**
+     * 分页查询当前用户的博客，传入cursor时按游标分页，从新到旧排序，第一页传空字符串
+     */
     @GetMapping("/of/me")
-    public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+    public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current,
+                              @RequestParam(value = "cursor", required = false) String cursor) {
         // 获取登录用户
         UserDTO user = UserHolder.getUser();
-        // 根据用户查询
+        if (cursor != null) {
+            return queryBlogByCursor(user.getId(), cursor);
+        }
+        // 根据用户查询，不统计总数
         Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, MAX_PAGE_SIZE));
+                .eq("user_id", user.getId()).page(new Page<>(current, MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
@@ -67,10 +76,17 @@ public class BlogController {
         return blogService.queryBlogLikes(id);
     }
 
+    /**
+     * 分页查询用户的博客，传入cursor时按游标分页，从新到旧排序，第一页传空字符串
+     */
     @GetMapping("/of/user")
     public Result queryBlogUserByUserId(@RequestParam(value = "current", defaultValue = "1") Integer current
-            , @RequestParam("id") Long id) {
-        Page<Blog> page = new Page<>(current, MAX_PAGE_SIZE);
+            , @RequestParam("id") Long id
+            , @RequestParam(value = "cursor", required = false) String cursor) {
+        if (cursor != null) {
+            return queryBlogByCursor(id, cursor);
+        }
+        Page<Blog> page = new Page<>(current, MAX_PAGE_SIZE, false);
         LambdaQueryWrapper<Blog> queryWrapper = new LambdaQueryWrapper<>();
         queryWrapper.eq(Blog::getUserId, id);
         Page<Blog> blogPage = blogService.page(page, queryWrapper);
@@ -85,4 +101,24 @@ public class BlogController {
 
         return blogService.queryBlogOfFollow(max, offset);
     }
+
+    /**
+     * 按id从大到小，从上一页最后一条之后查询用户的博客，翻到多深都只扫描一页的数据
+     */
+    private Result queryBlogByCursor(Long userId, String cursor) {
+        Long lastId;
+        try {
+            lastId = PageCursor.decodeId(cursor);
+        } catch (IllegalArgumentException e) {
+            return Result.fail(e.getMessage());
+        }
+        List<Blog> blogs = blogService.query()
+                .eq("user_id", userId)
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("limit " + (MAX_PAGE_SIZE + 1))
+                .list();
+        String next = PageCursor.next(blogs, MAX_PAGE_SIZE, blog -> PageCursor.encode(blog.getId()));
+        return Result.ok(new CursorResult(blogs, next));
+    }
 }
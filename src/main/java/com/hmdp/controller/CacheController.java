@@ -0,0 +1,131 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheWarmUpRunner;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.ShopGeoIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * <p>
+ * 缓存运维接口，除/cache/ready外只允许管理员访问
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheWarmUpRunner cacheWarmUpRunner;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IdWorker idWorker;
+
+    @Value("${hmdp.geo.benchmark-max-rounds:10000}")
+    private int geoBenchmarkMaxRounds;
+
+    /**
+     * 查询本地缓存和redis缓存的命中统计
+     */
+    @GetMapping("stats")
+    public Result queryStats() {
+        return Result.ok(cacheClient.getStats());
+    }
+
+    /**
+     * 查询缓存失效的统计：删除延迟、积压数量、失败次数
+     */
+    @GetMapping("invalidation")
+    public Result queryInvalidationStats() {
+        return Result.ok(cacheInvalidator.getStats());
+    }
+
+    /**
+     * 缓存是否已经预热完成，未完成时返回503，供负载均衡判断是否转发流量
+     */
+    @GetMapping("ready")
+    public Result queryReady(HttpServletResponse response) {
+        if (!cacheWarmUpRunner.isReady()) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return Result.fail("缓存预热中");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 查询id生成器的统计，snowflake策略下包含时钟回拨次数
+     */
+    @GetMapping("id-worker")
+    public Result queryIdWorkerStats() {
+        return Result.ok(idWorker.getStats());
+    }
+
+    /**
+     * 查询当前的热点key
+     */
+    @GetMapping("hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.getHotKeys());
+    }
+
+    /**
+     * 查询本地空间索引的状态和候选商铺缓存命中统计
+     */
+    @GetMapping("geo")
+    public Result queryGeoStats() {
+        return Result.ok(shopGeoIndex.getStats());
+    }
+
+    /**
+     * 对比redis GEO和本地空间索引查询附近商铺的耗时
+     */
+    @GetMapping("geo/benchmark")
+    public Result benchmarkGeo(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "jitter", defaultValue = "0.05") Double jitter,
+            @RequestParam(value = "rounds", defaultValue = "1000") Integer rounds
+    ) {
+        if (rounds < 1 || rounds > geoBenchmarkMaxRounds) {
+            return Result.fail("rounds必须在1到" + geoBenchmarkMaxRounds + "之间");
+        }
+        if (jitter < 0) {
+            return Result.fail("jitter不能为负数");
+        }
+        if (!ShopGeoIndex.isValidCoordinate(x - jitter, y - jitter)
+                || !ShopGeoIndex.isValidCoordinate(x + jitter, y + jitter)) {
+            return Result.fail("坐标超出范围");
+        }
+        if (!shopGeoIndex.isReady()) {
+            return Result.fail("本地空间索引未开启或未构建完成");
+        }
+        return Result.ok(shopService.benchmarkGeo(typeId, x, y, jitter, rounds));
+    }
+}
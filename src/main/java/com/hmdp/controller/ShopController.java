@@ -1,12 +1,10 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ShopRankMetric;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -45,10 +43,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -69,19 +65,18 @@ public class ShopController {
      *
      * @param typeId  商铺类型
      * @param current 页码
+     * @param cursor  游标，传入时按游标分页，第一页传空字符串，返回结果中包含下一页的游标
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByType(typeId, current, x, y, cursor);
     }
 
     /**
@@ -89,18 +84,47 @@ public class ShopController {
      *
      * @param name    商铺名称关键字
      * @param current 页码
+     * @param cursor  游标，传入时按游标分页，第一页传空字符串，返回结果中包含下一页的游标
      * @return 商铺列表
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByName(name, current, cursor);
+    }
+
+    /**
+     * 根据商铺名称前缀补全，用于搜索框联想
+     *
+     * @param prefix 名称前缀
+     * @return 商铺名称列表
+     */
+    @GetMapping("/of/name/suggest")
+    public Result suggestShopNames(@RequestParam(value = "prefix", required = false) String prefix) {
+        return shopService.suggestShopNames(prefix);
+    }
+
+    /**
+     * 分页查询类型内的商铺排行
+     *
+     * @param typeId  商铺类型
+     * @param metric  排序字段：score评分、sold销量、comments评论数
+     * @param current 页码
+     * @return 商铺列表
+     */
+    @GetMapping("/rank")
+    public Result queryShopRank(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "metric", defaultValue = "score") String metric,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        ShopRankMetric rankMetric = ShopRankMetric.of(metric);
+        if (rankMetric == null) {
+            return Result.fail("不支持的排行类型！");
+        }
+        return shopService.queryShopRank(typeId, rankMetric, current);
     }
 }
@@ -26,6 +26,6 @@ public class ShopTypeController {
     @GetMapping("list")
     public Result queryTypeList() {
 
-        return typeService.queryAllTypes();
+        return Result.ok(typeService.queryAllTypes());
     }
 }
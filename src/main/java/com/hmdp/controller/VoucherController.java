@@ -2,7 +2,9 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import org.springframework.web.bind.annotation.*;
 
@@ -23,6 +25,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
     /**
      * 新增普通券
      *
@@ -31,7 +36,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -47,6 +52,17 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 修改秒杀券的秒杀时间
+     *
+     * @param voucher 秒杀信息，包含秒杀券id和秒杀时间
+     * @return 无
+     */
+    @PutMapping("seckill")
+    public Result updateSeckillVoucher(@RequestBody SeckillVoucher voucher) {
+        return seckillVoucherService.updateSeckillVoucher(voucher);
+    }
+
     /**
      * 查询店铺的优惠券列表
      *
@@ -55,6 +71,6 @@ public class VoucherController {
      */
     @GetMapping("/list/{shopId}")
     public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
-        return voucherService.queryVoucherOfShop(shopId);
+        return Result.ok(voucherService.queryVoucherOfShop(shopId));
     }
 }
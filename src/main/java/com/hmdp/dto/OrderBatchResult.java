@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量落库时被拒绝的订单：重复购买的订单只需归还库存，库存不足的订单还要归还购买资格
+ */
+@Data
+public class OrderBatchResult {
+    private List<VoucherOrder> duplicated = new ArrayList<>();
+    private List<VoucherOrder> outOfStock = new ArrayList<>();
+}
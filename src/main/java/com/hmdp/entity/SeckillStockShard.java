@@ -0,0 +1,53 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 秒杀库存分片，分片模式的秒杀券库存拆分到多行，与redis中的库存分片一一对应
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_seckill_stock_shard")
+public class SeckillStockShard implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 关联的秒杀券id
+     */
+    private Long voucherId;
+
+    /**
+     * 分片编号，从0开始
+     */
+    private Integer shard;
+
+    /**
+     * 分片库存
+     */
+    private Integer stock;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+
+
+}
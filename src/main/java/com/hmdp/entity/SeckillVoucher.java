@@ -33,7 +33,7 @@ public class SeckillVoucher implements Serializable {
     private Long voucherId;
 
     /**
-     * 库存
+     * 库存，分片模式下为0，库存保存在tb_seckill_stock_shard
      */
     private Integer stock;
 
@@ -57,5 +57,10 @@ public class SeckillVoucher implements Serializable {
      */
     private LocalDateTime updateTime;
 
+    /**
+     * 库存分片数，1表示不分片
+     */
+    private Integer stockShards;
+
 
 }
@@ -0,0 +1,13 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.SeckillStockShard;
+
+/**
+ * <p>
+ * Mapper 接口
+ * </p>
+ */
+public interface SeckillStockShardMapper extends BaseMapper<SeckillStockShard> {
+
+}
@@ -0,0 +1,13 @@
+package com.hmdp.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.SeckillStockShard;
+
+/**
+ * <p>
+ * 服务类
+ * </p>
+ */
+public interface ISeckillStockShardService extends IService<SeckillStockShard> {
+
+}
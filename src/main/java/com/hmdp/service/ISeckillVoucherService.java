@@ -1,6 +1,7 @@
 package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 
 /**
@@ -13,4 +14,59 @@ import com.hmdp.entity.SeckillVoucher;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 保存秒杀券，分片模式下把库存平均拆分到各分片行
+     *
+     * @param voucher 秒杀券信息，包含总库存和分片数
+     */
+    void saveSeckillVoucher(SeckillVoucher voucher);
+
+    /**
+     * 将秒杀券的库存和秒杀时间写入redis，供秒杀资格判断脚本使用
+     *
+     * @param voucher 秒杀券信息
+     */
+    void loadSeckillStock(SeckillVoucher voucher);
+
+    /**
+     * 查询秒杀券元数据（秒杀时间、库存分片数，不含库存），依次读取本地缓存、redis、数据库，
+     * 从数据库读取时同时把库存加载到redis
+     *
+     * @param voucherId 秒杀券id
+     * @return 秒杀券元数据，不存在时返回null
+     */
+    SeckillVoucher getSeckillMeta(Long voucherId);
+
+    /**
+     * 修改秒杀时间，同步更新redis并清除各节点的本地元数据缓存
+     *
+     * @param voucher 秒杀券信息，包含秒杀时间
+     * @return 无
+     */
+    Result updateSeckillVoucher(SeckillVoucher voucher);
+
+    /**
+     * 清除所有节点中该秒杀券的本地元数据缓存（包括不存在标记）
+     *
+     * @param voucherId 秒杀券id
+     */
+    void evictSeckillMeta(Long voucherId);
+
+    /**
+     * 查询秒杀券的库存分片数，1表示不分片
+     *
+     * @param voucherId 秒杀券id
+     * @return 库存分片数
+     */
+    int getStockShards(Long voucherId);
+
+    /**
+     * 归还秒杀库存（补货、超时未支付取消订单等），更新数据库，事务提交后再更新redis并清除各节点的售罄标记。
+     * 目前没有调用方，是留给补货和超时取消订单的入口
+     *
+     * @param voucherId 秒杀券id
+     * @param userId    取消订单时为下单用户，同时归还其购买资格；补货时为null
+     * @param count     归还数量
+     */
+    void restoreSeckillStock(Long voucherId, Long userId, int count);
 }
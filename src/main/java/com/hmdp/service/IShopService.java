@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
+import com.hmdp.utils.ShopRankMetric;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -17,4 +20,71 @@ public interface IShopService extends IService<Shop> {
     Result queryById(Long id);
 
     Result update(Shop shop);
+
+    /**
+     * 新增商铺，并记录到商铺id的布隆过滤器
+     */
+    Result saveShop(Shop shop);
+
+    /**
+     * 预热商铺缓存
+     *
+     * @param parallelism 并行度
+     * @param pageSize    每页查询并写入的数量
+     * @return 预热的商铺数量
+     */
+    int warmUpCache(int parallelism, int pageSize);
+
+    /**
+     * 根据类型分页查询商铺，传入坐标时按距离由近到远排序
+     *
+     * @param cursor 游标分页的游标，第一页传空字符串；为null时按页码分页
+     */
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String cursor);
+
+    /**
+     * 根据名称或商圈关键字分页查询商铺，按相关度和评分排序
+     *
+     * @param cursor 游标分页的游标，第一页传空字符串；为null时按页码分页
+     */
+    Result queryShopByName(String name, Integer current, String cursor);
+
+    /**
+     * 按排序字段分页查询类型内的商铺排行，排行榜未构建时查询数据库
+     */
+    Result queryShopRank(Integer typeId, ShopRankMetric metric, Integer current);
+
+    /**
+     * 根据名称前缀补全商铺名称
+     */
+    Result suggestShopNames(String prefix);
+
+    /**
+     * 从数据库全量构建每个类型的商铺GEO集合
+     *
+     * @return 写入的商铺数量
+     */
+    int loadShopGeo();
+
+    /**
+     * 从数据库全量构建每个类型的商铺排行榜（评分、销量、评论数）
+     *
+     * @return 写入的商铺数量
+     */
+    int loadShopRanks();
+
+    /**
+     * 从数据库全量重建本节点的进程内索引（空间索引、名称索引）
+     *
+     * @return 写入索引的商铺数量
+     */
+    int rebuildLocalIndexes();
+
+    /**
+     * 对比redis GEO和本地空间索引查询附近商铺的耗时
+     *
+     * @param jitterDegrees 查询坐标在(x, y)附近随机分布的范围
+     * @param rounds        查询次数
+     */
+    Map<String, Object> benchmarkGeo(Integer typeId, double x, double y, double jitterDegrees, int rounds);
 }
@@ -1,9 +1,10 @@
 package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
-import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 
+import java.util.List;
+
 /**
  * <p>
  * 服务类
@@ -14,5 +15,12 @@ import com.hmdp.entity.ShopType;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
-    Result queryAllTypes();
+    List<ShopType> queryAllTypes();
+
+    /**
+     * 查询全部商铺类型并写入缓存
+     *
+     * @return 商铺类型数量
+     */
+    int warmUpCache();
 }
@@ -3,9 +3,11 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -20,4 +22,16 @@ public interface IUserService extends IService<User> {
     Result sendCode(String phone, HttpSession session);
 
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    /**
+     * 根据id批量查询用户信息，优先走缓存
+     *
+     * @return 与ids一一对应，不存在的用户对应null
+     */
+    List<UserDTO> queryUserDTOs(List<Long> ids);
+
+    /**
+     * 根据id查询用户信息，优先走缓存，与批量查询共用缓存
+     */
+    UserDTO queryUserDTO(Long id);
 }
@@ -1,10 +1,12 @@
 package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.dto.OrderBatchResult;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 
+import java.util.List;
+
 /**
  * <p>
  * 服务类
@@ -17,5 +19,13 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    Result createVoucherOrder(SeckillVoucher voucher);
+    /**
+     * 批量创建同一秒杀券同一库存分片的订单：合并扣减库存并批量插入，已存在的订单视为成功
+     *
+     * @param voucherId     秒杀券id
+     * @param shard         订单扣减库存的分片，不分片时为0
+     * @param voucherOrders 订单列表，按下单先后顺序
+     * @return 被数据库拒绝的订单，分为重复购买和库存不足
+     */
+    OrderBatchResult createVoucherOrders(Long voucherId, int shard, List<VoucherOrder> voucherOrders);
 }
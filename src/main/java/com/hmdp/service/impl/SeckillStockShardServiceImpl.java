@@ -0,0 +1,18 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.SeckillStockShard;
+import com.hmdp.mapper.SeckillStockShardMapper;
+import com.hmdp.service.ISeckillStockShardService;
+import org.springframework.stereotype.Service;
+
+/**
+ * <p>
+ * 服务实现类
+ * </p>
+ */
+@Service
+public class SeckillStockShardServiceImpl extends ServiceImpl<SeckillStockShardMapper, SeckillStockShard>
+        implements ISeckillStockShardService {
+
+}
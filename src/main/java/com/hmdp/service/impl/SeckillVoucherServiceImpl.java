@@ -1,10 +1,51 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.lang.UUID;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillStockShard;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.service.ISeckillStockShardService;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_REBALANCE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_META_EVICT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_META_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDED_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAMS_KEY;
+import static com.hmdp.utils.SystemConstants.SECKILL_MAX_STOCK_SHARDS;
 
 /**
  * <p>
@@ -14,8 +55,352 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements
         ISeckillVoucherService {
 
+    private static final DefaultRedisScript<List> MOVE_OUT_SCRIPT;
+    private static final DefaultRedisScript<Long> MOVE_IN_SCRIPT;
+    private static final DefaultRedisScript<Long> MOVE_DONE_SCRIPT;
+    private static final DefaultRedisScript<Long> RESTORE_SCRIPT;
+
+    static {
+        MOVE_OUT_SCRIPT = new DefaultRedisScript<>();
+        MOVE_OUT_SCRIPT.setLocation(new ClassPathResource("seckill_move_out.lua"));
+        MOVE_OUT_SCRIPT.setResultType(List.class);
+
+        MOVE_IN_SCRIPT = new DefaultRedisScript<>();
+        MOVE_IN_SCRIPT.setLocation(new ClassPathResource("seckill_move_in.lua"));
+        MOVE_IN_SCRIPT.setResultType(Long.class);
+
+        MOVE_DONE_SCRIPT = new DefaultRedisScript<>();
+        MOVE_DONE_SCRIPT.setLocation(new ClassPathResource("seckill_move_done.lua"));
+        MOVE_DONE_SCRIPT.setResultType(Long.class);
+
+        RESTORE_SCRIPT = new DefaultRedisScript<>();
+        RESTORE_SCRIPT.setLocation(new ClassPathResource("seckill_restore.lua"));
+        RESTORE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 秒杀券id -> 元数据（秒杀时间、库存分片数），几乎不变，修改时广播清除
+     */
+    private final Map<Long, SeckillVoucher> metaCache = new ConcurrentHashMap<>();
+
+    /**
+     * 秒杀券id -> 不存在标记的过期时间（毫秒），避免不存在的id反复查询数据库
+     */
+    private final Map<Long, Long> absentMeta = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Resource
+    private ISeckillStockShardService seckillStockShardService;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.seckill.shard-consolidate-threshold:10}")
+    private long shardConsolidateThreshold;
+
+    @Value("${hmdp.seckill.shard-rebalance-interval-millis:1000}")
+    private long shardRebalanceIntervalMillis;
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            try {
+                Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+                metaCache.remove(voucherId);
+                absentMeta.remove(voucherId);
+            } catch (NumberFormatException e) {
+                log.warn("无效的秒杀券元数据清除消息", e);
+            }
+        }, new ChannelTopic(SECKILL_META_EVICT_CHANNEL));
+    }
+
+    @Override
+    public void saveSeckillVoucher(SeckillVoucher voucher) {
+        int shards = voucher.getStockShards() == null ? 1
+                : Math.max(1, Math.min(voucher.getStockShards(), SECKILL_MAX_STOCK_SHARDS));
+        voucher.setStockShards(shards);
+        if (shards == 1) {
+            save(voucher);
+            return;
+        }
+        // 分片模式：库存平均拆分到各分片行，下单时每个分片的订单只扣减自己那一行
+        int stock = voucher.getStock();
+        List<SeckillStockShard> rows = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            rows.add(new SeckillStockShard()
+                    .setVoucherId(voucher.getVoucherId())
+                    .setShard(i)
+                    .setStock(stock / shards + (i < stock % shards ? 1 : 0)));
+        }
+        voucher.setStock(0);
+        save(voucher);
+        seckillStockShardService.saveBatch(rows);
+    }
+
+    @Override
+    public void loadSeckillStock(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        int shards = voucher.getStockShards() == null ? 1 : voucher.getStockShards();
+        Map<String, String> window = new HashMap<>(4);
+        window.put("begin", String.valueOf(toMillis(voucher.getBeginTime())));
+        window.put("end", String.valueOf(toMillis(voucher.getEndTime())));
+        // 1.元数据：时间和分片数，秒杀脚本不读取
+        Map<String, String> meta = new HashMap<>(window);
+        meta.put("shards", String.valueOf(shards));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_META_KEY + voucherId, meta);
+        // 2.各分片的库存，分片模式从分片行读取
+        Map<Integer, Integer> stocks = new HashMap<>(shards * 2);
+        if (shards == 1) {
+            stocks.put(0, voucher.getStock());
+        } else {
+            seckillStockShardService.query().eq("voucher_id", voucherId).list()
+                    .forEach(row -> stocks.put(row.getShard(), row.getStock()));
+        }
+        String[] streams = new String[shards];
+        for (int i = 0; i < shards; i++) {
+            String shardKey = SeckillKeys.stock(voucherId, i);
+            // 先写时间，再写库存：脚本以stock字段是否存在判断是否已加载，每个分片都带上时间供脚本判断
+            stringRedisTemplate.opsForHash().putAll(shardKey, window);
+            // 库存只在不存在时写入，避免并发加载时覆盖已经预扣的库存
+            stringRedisTemplate.opsForHash().putIfAbsent(shardKey, "stock",
+                    String.valueOf(stocks.getOrDefault(i, 0)));
+            streams[i] = SeckillKeys.stream(voucherId, i);
+        }
+        // 3.登记各分片的订单队列，由订单消费线程读取
+        stringRedisTemplate.opsForSet().add(SECKILL_STREAMS_KEY, streams);
+        if (shards > 1) {
+            stringRedisTemplate.opsForSet().add(SECKILL_SHARDED_KEY, voucherId.toString());
+        }
+        cacheMeta(voucherId, voucher.getBeginTime(), voucher.getEndTime(), shards);
+    }
+
+    @Override
+    public SeckillVoucher getSeckillMeta(Long voucherId) {
+        // 1.本地缓存
+        SeckillVoucher meta = metaCache.get(voucherId);
+        if (meta != null) {
+            return meta;
+        }
+        Long absentUntil = absentMeta.get(voucherId);
+        if (absentUntil != null && absentUntil > System.currentTimeMillis()) {
+            return null;
+        }
+        // 2.redis
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_META_KEY + voucherId, Arrays.asList("begin", "end", "shards"));
+        if (values.get(0) != null && values.get(1) != null) {
+            return cacheMeta(voucherId, toTime(Long.parseLong((String) values.get(0))),
+                    toTime(Long.parseLong((String) values.get(1))),
+                    values.get(2) == null ? 1 : Integer.parseInt((String) values.get(2)));
+        }
+        // 3.数据库，同时把库存加载到redis
+        SeckillVoucher voucher = getById(voucherId);
+        if (voucher == null) {
+            absentMeta.put(voucherId, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+            return null;
+        }
+        loadSeckillStock(voucher);
+        return metaCache.get(voucherId);
+    }
+
+    @Override
+    @Transactional
+    public Result updateSeckillVoucher(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        if (voucherId == null || voucher.getBeginTime() == null || voucher.getEndTime() == null) {
+            return Result.fail("秒杀券ID和秒杀时间不能为空！");
+        }
+        // 1.更新数据库，只允许修改秒杀时间，库存通过restoreSeckillStock归还
+        boolean success = update()
+                .set("begin_time", voucher.getBeginTime())
+                .set("end_time", voucher.getEndTime())
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在！");
+        }
+        // 2.更新redis中的秒杀时间，分片模式下每个分片都保存了时间
+        Map<String, String> window = new HashMap<>(4);
+        window.put("begin", String.valueOf(toMillis(voucher.getBeginTime())));
+        window.put("end", String.valueOf(toMillis(voucher.getEndTime())));
+        int shards = readStockShards(voucherId);
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_META_KEY + voucherId))) {
+            stringRedisTemplate.opsForHash().putAll(SECKILL_META_KEY + voucherId, window);
+            String[] streams = new String[shards];
+            for (int i = 0; i < shards; i++) {
+                stringRedisTemplate.opsForHash().putAll(SeckillKeys.stock(voucherId, i), window);
+                streams[i] = SeckillKeys.stream(voucherId, i);
+            }
+            // 结束时间延后时，已经从消费列表中移除的订单队列重新登记
+            stringRedisTemplate.opsForSet().add(SECKILL_STREAMS_KEY, streams);
+        }
+        // 3.清除各节点的本地元数据缓存
+        evictSeckillMeta(voucherId);
+        return Result.ok();
+    }
+
+    @Override
+    public int getStockShards(Long voucherId) {
+        SeckillVoucher meta = getSeckillMeta(voucherId);
+        return meta == null ? 1 : meta.getStockShards();
+    }
+
+    private int readStockShards(Long voucherId) {
+        SeckillVoucher meta = metaCache.get(voucherId);
+        if (meta != null) {
+            return meta.getStockShards();
+        }
+        Object value = stringRedisTemplate.opsForHash().get(SECKILL_META_KEY + voucherId, "shards");
+        return value == null ? 1 : Integer.parseInt((String) value);
+    }
+
+    private SeckillVoucher cacheMeta(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime, int shards) {
+        SeckillVoucher meta = new SeckillVoucher()
+                .setVoucherId(voucherId)
+                .setBeginTime(beginTime)
+                .setEndTime(endTime)
+                .setStockShards(shards);
+        metaCache.put(voucherId, meta);
+        absentMeta.remove(voucherId);
+        return meta;
+    }
+
+    @Override
+    public void evictSeckillMeta(Long voucherId) {
+        metaCache.remove(voucherId);
+        absentMeta.remove(voucherId);
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_META_EVICT_CHANNEL, voucherId.toString());
+        } catch (Exception e) {
+            log.error("广播清除秒杀券元数据失败, voucherId={}", voucherId, e);
+        }
+    }
+
+    @Override
+    @Transactional
+    public void restoreSeckillStock(Long voucherId, Long userId, int count) {
+        // 1.归还数据库库存，分片模式归还到用户所属分片行，补货时归还到第一个分片
+        int shards = getStockShards(voucherId);
+        if (shards == 1) {
+            update().setSql("stock = stock + " + count).eq("voucher_id", voucherId).update();
+        } else {
+            seckillStockShardService.update().setSql("stock = stock + " + count)
+                    .eq("voucher_id", voucherId)
+                    .eq("shard", userId == null ? 0 : SeckillKeys.home(userId, shards))
+                    .update();
+        }
+        // 2.事务提交后再归还redis库存并清除售罄标记，避免事务回滚后redis多出库存
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    restoreRedisStock(voucherId, userId, count);
+                }
+            });
+        } else {
+            restoreRedisStock(voucherId, userId, count);
+        }
+    }
+
+    private void restoreRedisStock(Long voucherId, Long userId, int count) {
+        try {
+            // 取消订单时归还到用户所属分片并移除已购用户，补货时归还到第一个分片
+            int shards = getStockShards(voucherId);
+            int shard = userId == null ? 0 : SeckillKeys.home(userId, shards);
+            Long restored = stringRedisTemplate.execute(RESTORE_SCRIPT,
+                    Arrays.asList(SeckillKeys.stock(voucherId, shard), SeckillKeys.order(voucherId, shard)),
+                    String.valueOf(count), userId == null ? "" : userId.toString());
+            if (restored != null && restored == 1 && shards > 1) {
+                stringRedisTemplate.opsForSet().add(SECKILL_SHARDED_KEY, voucherId.toString());
+            }
+            // 清除售罄标记
+            seckillSoldOutRegistry.clearSoldOut(voucherId);
+        } catch (Exception e) {
+            log.error("归还redis秒杀库存失败, voucherId={}, userId={}, count={}", voucherId, userId, count, e);
+        }
+    }
+
+    /**
+     * 秒杀临近结束时各分片只剩零散库存，用户所属分片耗尽后要逐个尝试兄弟分片；
+     * 剩余总库存低于阈值时把库存集中到第一个分片，库存耗尽后不再检查该秒杀券。
+     * 各分片不在同一个slot，每个分片分三步转移：取走并记录转移中的数量、加到第一个分片、清除记录，
+     * 中途失败时下次合并从记录继续，每一步重复执行都不会多加或少加库存。同一时间只有一个节点合并
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.shard-rebalance-interval-millis:1000}")
+    public void rebalanceStockShards() {
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_SECKILL_REBALANCE_KEY, "1",
+                shardRebalanceIntervalMillis, TimeUnit.MILLISECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        Set<String> voucherIds = stringRedisTemplate.opsForSet().members(SECKILL_SHARDED_KEY);
+        if (voucherIds == null || voucherIds.isEmpty()) {
+            return;
+        }
+        for (String id : voucherIds) {
+            try {
+                Long voucherId = Long.valueOf(id);
+                int shards = getStockShards(voucherId);
+                // 1.统计剩余库存，转移中的库存也计入，保证中断的转移能够继续
+                long total = 0;
+                long first = 0;
+                for (int i = 0; i < shards; i++) {
+                    List<Object> values = stringRedisTemplate.opsForHash()
+                            .multiGet(SeckillKeys.stock(voucherId, i), Arrays.asList("stock", "moving"));
+                    long stock = values.get(0) == null ? 0 : Math.max(Long.parseLong((String) values.get(0)), 0);
+                    long moving = values.get(1) == null ? 0 : Long.parseLong((String) values.get(1));
+                    total += stock + moving;
+                    if (i == 0) {
+                        first = stock;
+                    }
+                }
+                if (total == 0) {
+                    stringRedisTemplate.opsForSet().remove(SECKILL_SHARDED_KEY, id);
+                    continue;
+                }
+                if (total > shardConsolidateThreshold || total == first) {
+                    // 库存还多，或已经集中在第一个分片
+                    continue;
+                }
+                // 2.逐个分片转移到第一个分片
+                for (int i = 1; i < shards; i++) {
+                    moveStock(voucherId, i, total);
+                }
+            } catch (Exception e) {
+                log.error("合并秒杀库存分片失败, voucherId={}", id, e);
+            }
+        }
+    }
+
+    private void moveStock(Long voucherId, int shard, long max) {
+        String shardKey = SeckillKeys.stock(voucherId, shard);
+        List<?> moved = stringRedisTemplate.execute(MOVE_OUT_SCRIPT, Collections.singletonList(shardKey),
+                String.valueOf(max), UUID.randomUUID().toString(true));
+        long count = moved == null ? 0 : ((Number) moved.get(0)).longValue();
+        if (count <= 0) {
+            return;
+        }
+        String moveId = (String) moved.get(1);
+        stringRedisTemplate.execute(MOVE_IN_SCRIPT, Collections.singletonList(SeckillKeys.stock(voucherId, 0)),
+                String.valueOf(shard), moveId, String.valueOf(count));
+        stringRedisTemplate.execute(MOVE_DONE_SCRIPT, Collections.singletonList(shardKey), moveId);
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
 }
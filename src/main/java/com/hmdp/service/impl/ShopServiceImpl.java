@@ -1,20 +1,68 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
 import com.hmdp.utils.CacheClient;
-import org.springframework.data.redis.core.RedisTemplate;
+import com.hmdp.utils.CacheInvalidate;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoIndex.GeoPage;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopNameIndex.SearchPage;
+import com.hmdp.utils.ShopRankMetric;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOOM_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_RANK_LOADED_KEY;
 
 /**
  * <p>
@@ -24,27 +72,157 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
-    @Resource
-    private RedisTemplate redisTemplate;
+    private static final int ID_SCAN_PAGE_SIZE = 10000;
+    private static final String STRATEGY_MUTEX = "mutex";
+    private static final String STRATEGY_LOGICAL_EXPIRE = "logical-expire";
+    private static final int REDIS_WRITE_BATCH_SIZE = 1000;
+    /**
+     * 按名称查询的游标的查询方式：数据库按id排序、名称索引按排序值排序
+     */
+    private static final String NAME_CURSOR_DB = "db";
+    private static final String NAME_CURSOR_INDEX = "index";
+    private static final DefaultRedisScript<List> GEO_PAGE_SCRIPT;
+
+    static {
+        GEO_PAGE_SCRIPT = new DefaultRedisScript<>();
+        GEO_PAGE_SCRIPT.setLocation(new ClassPathResource("shop_geo_page.lua"));
+        GEO_PAGE_SCRIPT.setResultType(List.class);
+    }
 
     @Resource
     private CacheClient cacheClient;
 
-    @Override
-    public Result queryById(Long id) {
-        //解决缓存穿透
-        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_TTL, TimeUnit.MINUTES, CACHE_SHOP_KEY, id, Shop.class,
-                this::getById);
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    /**
+     * 商铺缓存策略：pass-through、mutex、logical-expire
+     */
+    @Value("${hmdp.cache.shop-strategy:pass-through}")
+    private String cacheStrategy;
 
-//        //利用互斥锁解决缓存击穿
-//        Shop shop = queryWithMutex(id);
+    @Value("${hmdp.geo.radius-meters:5000}")
+    private long geoRadiusMeters;
+
+    @Value("${hmdp.bloom.enabled:true}")
+    private boolean bloomEnabled;
+
+    @Value("${hmdp.bloom.shop-expected-insertions:1000000}")
+    private long bloomExpectedInsertions;
+
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double bloomFpp;
+
+    @Value("${hmdp.bloom.rebuild-interval-millis:3600000}")
+    private long bloomRebuildIntervalMillis;
+
+    /**
+     * 商铺id的布隆过滤器，拦截不存在的商铺id，避免缓存穿透
+     */
+    private RedisBloomFilter shopFilter;
+
+    @PostConstruct
+    private void initShopFilter() {
+        if (!bloomEnabled) {
+            return;
+        }
+        shopFilter = new RedisBloomFilter(stringRedisTemplate, redisMessageListenerContainer, "shop",
+                bloomExpectedInsertions, bloomFpp);
+        if (!shopFilter.load()) {
+            // redis中还没有位图，从数据库构建
+            shopFilter.rebuild(listAllIds());
+        }
+        cacheClient.registerExistenceFilter(CACHE_SHOP_KEY, shopFilter);
+    }
+
+    /**
+     * 定期全量重建布隆过滤器，清除已删除商铺的位；同一时间只有一个节点重建
+     */
+    @Scheduled(initialDelayString = "${hmdp.bloom.rebuild-interval-millis:3600000}",
+            fixedDelayString = "${hmdp.bloom.rebuild-interval-millis:3600000}")
+    public void rebuildShopFilter() {
+        if (shopFilter == null) {
+            return;
+        }
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_BLOOM_KEY + "shop", "1",
+                bloomRebuildIntervalMillis / 2, TimeUnit.MILLISECONDS);
+        if (!BooleanUtil.isTrue(locked)) {
+            return;
+        }
+        try {
+            shopFilter.rebuild(listAllIds());
+        } catch (Exception e) {
+            log.error("重建商铺布隆过滤器失败", e);
+        }
+    }
 
-//        //利用逻辑过期解决缓存击穿
-//        Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY,id,Shop.class,this::getById,CACHE_SHOP_TTL,
-//                TimeUnit.MINUTES);
+    /**
+     * 定期从redis同步本地镜像，获取其他节点重建的结果
+     */
+    @Scheduled(fixedDelayString = "${hmdp.bloom.sync-interval-millis:60000}")
+    public void syncShopFilter() {
+        if (shopFilter == null) {
+            return;
+        }
+        try {
+            shopFilter.load();
+        } catch (Exception e) {
+            log.error("同步商铺布隆过滤器失败", e);
+        }
+    }
+
+    /**
+     * 按id分页查询全部商铺id
+     */
+    private List<Long> listAllIds() {
+        List<Long> ids = new ArrayList<>();
+        long lastId = 0;
+        while (true) {
+            List<Long> page = listObjs(new QueryWrapper<Shop>().select("id").gt("id", lastId).orderByAsc("id")
+                    .last("limit " + ID_SCAN_PAGE_SIZE), o -> ((Number) o).longValue());
+            ids.addAll(page);
+            if (page.size() < ID_SCAN_PAGE_SIZE) {
+                return ids;
+            }
+            lastId = page.get(page.size() - 1);
+        }
+    }
+
+    @Override
+    public Result queryById(Long id) {
+        Shop shop;
+        switch (cacheStrategy) {
+            case STRATEGY_MUTEX:
+                //利用互斥锁解决缓存击穿
+                shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL,
+                        TimeUnit.MINUTES);
+                break;
+            case STRATEGY_LOGICAL_EXPIRE:
+                //利用逻辑过期解决缓存击穿，依赖预热
+                shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL,
+                        TimeUnit.MINUTES);
+                break;
+            default:
+                //解决缓存穿透
+                shop = cacheClient.queryWithPassThrough(CACHE_SHOP_TTL, TimeUnit.MINUTES, CACHE_SHOP_KEY, id, Shop.class,
+                        this::getById);
+        }
         if (shop == null) {
             return Result.fail("店铺不存在！");
         }
@@ -53,16 +231,546 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 记录到布隆过滤器
+        if (shopFilter != null) {
+            shopFilter.put(shop.getId());
+        }
+        // 写入GEO集合
+        syncShopIndexes(null, shop);
+        return Result.ok(shop.getId());
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String cursor) {
+        if (current == null || current < 1) {
+            return Result.fail("页码必须大于0");
+        }
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        // 1判断是否需要根据坐标查询
+        if (x == null || y == null) {
+            // 不需要坐标查询，按数据库查询
+            if (cursor == null) {
+                Page<Shop> page = query()
+                        .eq("type_id", typeId)
+                        .page(new Page<>(current, pageSize, false));
+                // 返回数据
+                return Result.ok(page.getRecords());
+            }
+            // 游标分页，按id顺序从上一页最后一条之后查询
+            Long lastId;
+            try {
+                lastId = PageCursor.decodeId(cursor);
+            } catch (IllegalArgumentException e) {
+                return Result.fail(e.getMessage());
+            }
+            List<Shop> shops = query()
+                    .eq("type_id", typeId)
+                    .gt(lastId != null, "id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + (pageSize + 1))
+                    .list();
+            String next = PageCursor.next(shops, pageSize, shop -> PageCursor.encode(shop.getId()));
+            return Result.ok(new CursorResult(shops, next));
+        }
+        if (!ShopGeoIndex.isValidCoordinate(x, y)) {
+            return Result.fail("坐标超出范围");
+        }
+        // 2计算分页参数，游标包含上一页最后一条的距离、id和已返回的数量
+        double afterDistance = ShopGeoIndex.NO_CURSOR;
+        long afterId = 0;
+        int from = (current - 1) * pageSize;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String[] parts = PageCursor.decode(cursor, 3);
+                afterDistance = Double.parseDouble(parts[0]);
+                afterId = Long.parseLong(parts[1]);
+                from = Integer.parseInt(parts[2]);
+            } catch (IllegalArgumentException e) {
+                return Result.fail("无效的分页游标");
+            }
+            if (from < 0) {
+                return Result.fail("无效的分页游标");
+            }
+        } else if (cursor != null) {
+            from = 0;
+        }
+        // 3按照距离排序、分页，只查询当前页的 shopId、distance，本地索引可用时不访问redis
+        // 本地索引按距离和id定位到游标之后；redis GEOSEARCH不能从中间开始，仍按已返回的数量跳过
+        GeoPage page = shopGeoIndex.isReady()
+                ? shopGeoIndex.search(typeId.longValue(), x, y, geoRadiusMeters, afterDistance, afterId,
+                cursor == null ? from : 0, cursor == null ? from + pageSize : pageSize)
+                : searchGeoInRedis(typeId, x, y, from, from + pageSize);
+        // 4一次批量查询商铺
+        List<Long> ids = new ArrayList<>(page.ids.length);
+        for (long id : page.ids) {
+            ids.add(id);
+        }
+        List<Shop> result = new ArrayList<>(ids.size());
+        if (!ids.isEmpty()) {
+            List<Shop> shops = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_TTL, TimeUnit.MINUTES, CACHE_SHOP_KEY,
+                    ids, Shop.class, this::listByIds, Shop::getId);
+            // 5按距离顺序返回，复制后再设置距离，不修改缓存中的对象
+            for (int i = 0; i < shops.size(); i++) {
+                Shop shop = shops.get(i);
+                if (shop != null) {
+                    result.add(BeanUtil.copyProperties(shop, Shop.class).setDistance(page.distances[i]));
+                }
+            }
+        }
+        if (cursor == null) {
+            return Result.ok(result);
+        }
+        // 6不足一页时没有下一页
+        int last = page.ids.length - 1;
+        String next = page.ids.length < pageSize ? null
+                : PageCursor.encode(page.distances[last], page.ids[last], from + page.ids.length);
+        return Result.ok(new CursorResult(result, next));
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current, String cursor) {
+        if (current == null || current < 1) {
+            return Result.fail("页码必须大于0");
+        }
+        int pageSize = SystemConstants.MAX_PAGE_SIZE;
+        // 1没有关键字或名称索引未开启、未构建完成，按数据库分页查询，不统计总数；与名称索引一样匹配名称和地址
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            if (cursor == null) {
+                Page<Shop> page = queryByKeyword(name).page(new Page<>(current, pageSize, false));
+                return Result.ok(page.getRecords());
+            }
+            // 游标分页，按id顺序从上一页最后一条之后查询；游标由名称索引生成时从第一页开始
+            Long lastId = null;
+            if (!cursor.isEmpty()) {
+                try {
+                    String[] parts = PageCursor.decode(cursor, NAME_CURSOR_DB, 1);
+                    lastId = parts == null ? null : Long.valueOf(parts[0]);
+                } catch (IllegalArgumentException e) {
+                    return Result.fail("无效的分页游标");
+                }
+            }
+            List<Shop> shops = queryByKeyword(name)
+                    .gt(lastId != null, "id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + (pageSize + 1))
+                    .list();
+            String next = PageCursor.next(shops, pageSize,
+                    shop -> PageCursor.encode(NAME_CURSOR_DB, shop.getId()));
+            return Result.ok(new CursorResult(shops, next));
+        }
+        // 2在名称索引中查询当前页的商铺id，游标包含上一页最后一条的排序值和id；游标由数据库查询生成时从第一页开始
+        SearchPage page;
+        if (cursor == null) {
+            int from = (current - 1) * pageSize;
+            page = shopNameIndex.search(name, ShopNameIndex.NO_CURSOR, 0, from, from + pageSize);
+        } else {
+            int afterRank = ShopNameIndex.NO_CURSOR;
+            long afterId = 0;
+            if (!cursor.isEmpty()) {
+                try {
+                    String[] parts = PageCursor.decode(cursor, NAME_CURSOR_INDEX, 2);
+                    if (parts != null) {
+                        afterRank = Integer.parseInt(parts[0]);
+                        afterId = Long.parseLong(parts[1]);
+                    }
+                } catch (IllegalArgumentException e) {
+                    return Result.fail("无效的分页游标");
+                }
+            }
+            page = shopNameIndex.search(name, afterRank, afterId, 0, pageSize);
+        }
+        // 3一次批量查询商铺，按索引的排序返回
+        List<Shop> shops = new ArrayList<>(page.ids.length);
+        if (page.ids.length > 0) {
+            List<Long> ids = new ArrayList<>(page.ids.length);
+            for (long id : page.ids) {
+                ids.add(id);
+            }
+            shops = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_TTL, TimeUnit.MINUTES, CACHE_SHOP_KEY, ids,
+                    Shop.class, this::listByIds, Shop::getId);
+            shops.removeIf(Objects::isNull);
+        }
+        if (cursor == null) {
+            return Result.ok(shops);
+        }
+        int last = page.ids.length - 1;
+        String next = page.ids.length < pageSize ? null
+                : PageCursor.encode(NAME_CURSOR_INDEX, page.ranks[last], page.ids[last]);
+        return Result.ok(new CursorResult(shops, next));
+    }
+
+    /**
+     * 名称或地址包含关键字，与名称索引一样忽略关键字和字段中的空格
+     */
+    private QueryChainWrapper<Shop> queryByKeyword(String name) {
+        String keyword = "%" + StrUtil.cleanBlank(name) + "%";
+        return query().and(StrUtil.isNotBlank(name), wrapper -> wrapper
+                .apply("REPLACE(name, ' ', '') LIKE {0}", keyword)
+                .or()
+                .apply("REPLACE(area, ' ', '') LIKE {0}", keyword));
+    }
+
+    @Override
+    public Result queryShopRank(Integer typeId, ShopRankMetric metric, Integer current) {
+        if (current == null || current < 1) {
+            return Result.fail("页码必须大于0");
+        }
+        int pageSize = SystemConstants.MAX_PAGE_SIZE;
+        long start = (long) (current - 1) * pageSize;
+        // 1按分数从高到低查询当前页的商铺id
+        String key = metric.key(typeId.longValue());
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(key, start, start + pageSize - 1);
+        if (members == null || members.isEmpty()) {
+            // 排行榜已经全量构建过时，没有ZSET说明该类型没有商铺，不再查询数据库
+            Long exists = stringRedisTemplate.countExistingKeys(Arrays.asList(key, SHOP_RANK_LOADED_KEY));
+            if (exists != null && exists > 0) {
+                return Result.ok(Collections.emptyList());
+            }
+            // 2排行榜尚未构建，按数据库排序查询，分数相同时按id排序保证分页稳定
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .orderByDesc(metric.getColumn())
+                    .orderByDesc("id")
+                    .page(new Page<>(current, pageSize, false));
+            return Result.ok(page.getRecords());
+        }
+        // 3一次批量查询商铺，按排行顺序返回
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            ids.add(Long.valueOf(member));
+        }
+        List<Shop> shops = cacheClient.queryBatchWithPassThrough(CACHE_SHOP_TTL, TimeUnit.MINUTES, CACHE_SHOP_KEY, ids,
+                Shop.class, this::listByIds, Shop::getId);
+        shops.removeIf(Objects::isNull);
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result suggestShopNames(String prefix) {
+        if (StrUtil.isBlank(prefix) || !shopNameIndex.isReady()) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(shopNameIndex.suggest(prefix, SystemConstants.MAX_PAGE_SIZE));
+    }
+
+    private GeoPage searchGeoInRedis(Integer typeId, double x, double y, int from, int end) {
+        List<Object> page = stringRedisTemplate.execute(GEO_PAGE_SCRIPT, Collections.singletonList(SHOP_GEO_KEY + typeId),
+                String.valueOf(x), String.valueOf(y), String.valueOf(geoRadiusMeters), String.valueOf(from), String.valueOf(end));
+        if (page == null) {
+            return new GeoPage(new long[0], new double[0]);
+        }
+        // 解析出id和距离
+        long[] ids = new long[page.size() / 2];
+        double[] distances = new double[page.size() / 2];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Long.parseLong(page.get(2 * i).toString());
+            distances[i] = Double.parseDouble(page.get(2 * i + 1).toString());
+        }
+        return new GeoPage(ids, distances);
+    }
+
+    /**
+     * 对比redis GEO和本地空间索引查询同一批随机坐标的耗时，坐标在(x, y)附近jitterDegrees范围内均匀分布。
+     * 本地索引分别统计不使用和使用候选商铺缓存的耗时，并统计与redis结果不一致的次数
+     */
+    @Override
+    public Map<String, Object> benchmarkGeo(Integer typeId, double x, double y, double jitterDegrees, int rounds) {
+        if (!shopGeoIndex.isReady()) {
+            throw new IllegalStateException("本地空间索引未开启或未构建完成");
+        }
+        int end = SystemConstants.DEFAULT_PAGE_SIZE;
+        double[] xs = new double[rounds];
+        double[] ys = new double[rounds];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < rounds; i++) {
+            xs[i] = x + random.nextDouble(-jitterDegrees, jitterDegrees);
+            ys[i] = y + random.nextDouble(-jitterDegrees, jitterDegrees);
+        }
+        int mismatches = 0;
+        long redisNanos = 0;
+        long localNanos = 0;
+        long memoNanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            GeoPage redis = searchGeoInRedis(typeId, xs[i], ys[i], 0, end);
+            long redisEnd = System.nanoTime();
+            GeoPage local = shopGeoIndex.searchExact(typeId.longValue(), xs[i], ys[i], geoRadiusMeters, 0, end);
+            long localEnd = System.nanoTime();
+            shopGeoIndex.search(typeId.longValue(), xs[i], ys[i], geoRadiusMeters, ShopGeoIndex.NO_CURSOR, 0, 0, end);
+            long memoEnd = System.nanoTime();
+            redisNanos += redisEnd - start;
+            localNanos += localEnd - redisEnd;
+            memoNanos += memoEnd - localEnd;
+            if (!Arrays.equals(redis.ids, local.ids)) {
+                mismatches++;
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rounds", rounds);
+        result.put("redisAvgMicros", redisNanos / 1000.0 / rounds);
+        result.put("localAvgMicros", localNanos / 1000.0 / rounds);
+        result.put("localMemoAvgMicros", memoNanos / 1000.0 / rounds);
+        // redis GEO使用52位geohash保存坐标，距离相同或极近时顺序可能不同
+        result.put("mismatches", mismatches);
+        result.put("index", shopGeoIndex.getStats());
+        return result;
+    }
+
+    /**
+     * 全量构建每个类型的GEO集合：先写入临时key，再RENAME替换，查询不会读到构建了一半的集合。
+     * 构建期间新增或修改的商铺可能被覆盖，下次构建时修正
+     */
+    @Override
+    public int loadShopGeo() {
+        // 1按类型分组查询商铺坐标
+        Map<Long, List<RedisGeoCommands.GeoLocation<String>>> locations = new HashMap<>();
+        int count = 0;
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = query().select("id", "type_id", "x", "y").gt("id", lastId).orderByAsc("id")
+                    .last("limit " + ID_SCAN_PAGE_SIZE).list();
+            for (Shop shop : shops) {
+                if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                    continue;
+                }
+                locations.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>())
+                        .add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(),
+                                new Point(shop.getX(), shop.getY())));
+                count++;
+            }
+            if (shops.size() < ID_SCAN_PAGE_SIZE) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        // 2没有商铺的类型删除原有的集合
+        for (ShopType type : shopTypeService.list()) {
+            if (!locations.containsKey(type.getId())) {
+                stringRedisTemplate.delete(SHOP_GEO_KEY + type.getId());
+            }
+        }
+        // 3分批写入临时key后替换
+        locations.forEach((typeId, list) -> {
+            String key = SHOP_GEO_KEY + typeId;
+            String tmpKey = key + ":tmp";
+            stringRedisTemplate.delete(tmpKey);
+            for (int i = 0; i < list.size(); i += REDIS_WRITE_BATCH_SIZE) {
+                stringRedisTemplate.opsForGeo().add(tmpKey, list.subList(i, Math.min(i + REDIS_WRITE_BATCH_SIZE, list.size())));
+            }
+            stringRedisTemplate.rename(tmpKey, key);
+        });
+        return count;
+    }
+
+    /**
+     * 全量构建每个类型每个排序字段的排行榜ZSET，与GEO集合一样先写临时key再RENAME替换，
+     * 构建期间修改的商铺可能被覆盖，下次构建时修正
+     */
+    @Override
+    public int loadShopRanks() {
+        // 1按类型分组查询商铺的排序字段
+        Map<Long, List<Shop>> groups = new HashMap<>();
+        int count = 0;
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = query().select("id", "type_id", "score", "sold", "comments")
+                    .gt("id", lastId).orderByAsc("id")
+                    .last("limit " + ID_SCAN_PAGE_SIZE).list();
+            for (Shop shop : shops) {
+                if (shop.getTypeId() != null) {
+                    groups.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>()).add(shop);
+                    count++;
+                }
+            }
+            if (shops.size() < ID_SCAN_PAGE_SIZE) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        // 2没有商铺的类型删除原有的排行榜
+        for (ShopType type : shopTypeService.list()) {
+            if (!groups.containsKey(type.getId())) {
+                for (ShopRankMetric metric : ShopRankMetric.values()) {
+                    stringRedisTemplate.delete(metric.key(type.getId()));
+                }
+            }
+        }
+        // 3分批写入临时key后替换
+        groups.forEach((typeId, shops) -> {
+            for (ShopRankMetric metric : ShopRankMetric.values()) {
+                String key = metric.key(typeId);
+                String tmpKey = key + ":tmp";
+                stringRedisTemplate.delete(tmpKey);
+                for (int i = 0; i < shops.size(); i += REDIS_WRITE_BATCH_SIZE) {
+                    Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+                    for (Shop shop : shops.subList(i, Math.min(i + REDIS_WRITE_BATCH_SIZE, shops.size()))) {
+                        tuples.add(new DefaultTypedTuple<>(shop.getId().toString(), metric.valueOf(shop)));
+                    }
+                    stringRedisTemplate.opsForZSet().add(tmpKey, tuples);
+                }
+                stringRedisTemplate.rename(tmpKey, key);
+            }
+        });
+        // 4标记排行榜已构建，之后没有ZSET的类型直接返回空列表
+        stringRedisTemplate.opsForValue().set(SHOP_RANK_LOADED_KEY, String.valueOf(System.currentTimeMillis()));
+        return count;
+    }
+
+    /**
+     * 从数据库全量重建本节点的进程内索引，每个节点各自执行
+     */
+    @Override
+    public int rebuildLocalIndexes() {
+        if (!shopGeoIndex.isEnabled() && !shopNameIndex.isEnabled()) {
+            return 0;
+        }
+        // 在扫描之前记录开始时间，扫描期间的修改在重建后重放
+        long startedAt = System.currentTimeMillis();
+        List<Shop> all = new ArrayList<>();
+        List<Shop> located = new ArrayList<>();
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = query().select("id", "type_id", "x", "y", "name", "area", "score")
+                    .gt("id", lastId).orderByAsc("id")
+                    .last("limit " + ID_SCAN_PAGE_SIZE).list();
+            for (Shop shop : shops) {
+                all.add(shop);
+                if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                    located.add(shop);
+                }
+            }
+            if (shops.size() < ID_SCAN_PAGE_SIZE) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        shopGeoIndex.rebuild(located, startedAt);
+        shopNameIndex.rebuild(all, startedAt);
+        return all.size();
+    }
+
+    /**
+     * 商铺新增或修改后同步GEO集合和进程内索引：类型变化时从原类型的集合中移除，再写入新的坐标
+     *
+     * @param old     修改前的商铺，新增时为null
+     * @param current 修改后的商铺
+     */
+    private void syncShopIndexes(Shop old, Shop current) {
+        shopGeoIndex.update(current.getId(), current.getTypeId(), current.getX(), current.getY());
+        shopNameIndex.update(current);
+        syncShopRanks(old, current);
+        try {
+            String member = current.getId().toString();
+            if (old != null && old.getTypeId() != null && !old.getTypeId().equals(current.getTypeId())) {
+                stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId(), member);
+            }
+            if (current.getTypeId() != null && current.getX() != null && current.getY() != null) {
+                stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + current.getTypeId(),
+                        new Point(current.getX(), current.getY()), member);
+            }
+        } catch (Exception e) {
+            // 同步失败时等待下次全量构建修正
+            log.error("同步商铺坐标失败，shopId={}", current.getId(), e);
+        }
+    }
+
+    /**
+     * 商铺新增或修改后更新排行榜：类型变化时从原类型的排行榜中移除，再写入新的分数
+     */
+    private void syncShopRanks(Shop old, Shop current) {
+        try {
+            String member = current.getId().toString();
+            for (ShopRankMetric metric : ShopRankMetric.values()) {
+                if (old != null && old.getTypeId() != null && !old.getTypeId().equals(current.getTypeId())) {
+                    stringRedisTemplate.opsForZSet().remove(metric.key(old.getTypeId()), member);
+                }
+                if (current.getTypeId() != null) {
+                    stringRedisTemplate.opsForZSet().add(metric.key(current.getTypeId()), member, metric.valueOf(current));
+                }
+            }
+        } catch (Exception e) {
+            // 同步失败时等待下次全量构建修正
+            log.error("同步商铺排行榜失败，shopId={}", current.getId(), e);
+        }
+    }
+
+    /**
+     * 预热商铺缓存：按id范围分成parallelism段并行处理，每段按id分页查询，每页用pipeline写入一次
+     *
+     * @return 预热的商铺数量
+     */
+    @Override
+    public int warmUpCache(int parallelism, int pageSize) {
+        Map<String, Object> range = getMap(new QueryWrapper<Shop>().select("MIN(id) AS minId", "MAX(id) AS maxId"));
+        if (range == null || range.get("minId") == null) {
+            return 0;
+        }
+        long minId = ((Number) range.get("minId")).longValue();
+        long maxId = ((Number) range.get("maxId")).longValue();
+        long span = (maxId - minId) / parallelism + 1;
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<CompletableFuture<Integer>> futures = new ArrayList<>(parallelism);
+            for (long start = minId; start <= maxId; start += span) {
+                long from = start;
+                long to = Math.min(start + span - 1, maxId);
+                futures.add(CompletableFuture.supplyAsync(() -> warmUpRange(from, to, pageSize), pool));
+            }
+            return futures.stream().mapToInt(CompletableFuture::join).sum();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private int warmUpRange(long from, long to, int pageSize) {
+        int count = 0;
+        long lastId = from - 1;
+        while (true) {
+            List<Shop> shops = query().gt("id", lastId).le("id", to).orderByAsc("id").last("limit " + pageSize).list();
+            if (shops.isEmpty()) {
+                return count;
+            }
+            Map<String, Object> values = new LinkedHashMap<>(shops.size() * 2);
+            for (Shop shop : shops) {
+                values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+            }
+            if (STRATEGY_LOGICAL_EXPIRE.equals(cacheStrategy)) {
+                cacheClient.setBatchWithLogicalExpire(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            } else {
+                cacheClient.setBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            }
+            count += shops.size();
+            if (shops.size() < pageSize) {
+                return count;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+    }
+
     @Transactional
+    @CacheInvalidate(keyPrefix = CACHE_SHOP_KEY, key = "#shop.id")
     public Result update(Shop shop) {
         Long id = shop.getId();
         if (id == null) {
             return Result.fail("店铺ID不能为空！");
         }
-        //更新数据库
+        Shop old = getById(id);
+        //更新数据库，事务提交后删除缓存
         this.updateById(shop);
-        //删除缓存
-        redisTemplate.delete("cache:shop:" + shop.getId());
+        // 事务提交后同步GEO集合，传入的shop可能只包含修改的字段，重新查询完整数据
+        Shop current = getById(id);
+        if (old != null && current != null) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    syncShopIndexes(old, current);
+                }
+            });
+        }
         return Result.ok();
     }
 
@@ -1,18 +1,21 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
-import org.springframework.data.redis.core.RedisTemplate;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheQuery;
+import com.hmdp.utils.CacheStrategy;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_TTL;
+
 /**
  * <p>
  * 服务实现类
@@ -24,46 +27,27 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    private static final String ALL_TYPES = "list";
+
     @Resource
-    private RedisTemplate redisTemplate;
+    private CacheClient cacheClient;
 
+    /**
+     * 商铺类型数量少、访问频繁，使用逻辑过期，过期后返回旧数据并在后台重建
+     */
     @Override
-    public Result queryAllTypes() {
-//        方法1 使用opsForValue
-//        String shopTypes = (String) redisTemplate.opsForValue().get("cache:shopType");
-//        if (shopTypes != null) {
-//            List<ShopType> shopTypeList = JSONUtil.toBean(shopTypes, ShopType.class, false);
-//            return Result.ok(shopTypeList);
-//        }
-//        List<ShopType> shopTypeList = this.list();
-//        redisTemplate.opsForValue().set("cache:shopType",JSONUtil.toJsonStr(shopTypeList));
-//        return Result.ok(shopTypeList);
-
-        //方法1.2 使用opsForValue(直接存贮对象)
-        String shopTypes = (String) redisTemplate.opsForValue().get("cache:shopType");
-
-        if (shopTypes != null) {
-            List<ShopType> types = JSONUtil.toList(shopTypes, ShopType.class);
-            return Result.ok(types);
+    @CacheQuery(keyPrefix = CACHE_SHOP_TYPE_KEY, key = "'" + ALL_TYPES + "'", ttl = CACHE_SHOP_TYPE_TTL,
+            strategy = CacheStrategy.LOGICAL_EXPIRE, elementType = ShopType.class)
+    public List<ShopType> queryAllTypes() {
+        return this.list();
+    }
 
-        }
+    @Override
+    public int warmUpCache() {
         List<ShopType> shopTypeList = this.list();
-        redisTemplate.opsForValue().set("cache:shopType", JSONUtil.toJsonStr(shopTypeList), 30, TimeUnit.MINUTES);
-        return Result.ok(shopTypeList);
-
-//        方法2使用Zset
-//        Set shopTypes = redisTemplate.opsForZSet().range("cache:shopType", 0, -1);
-//        if (!shopTypes.isEmpty()){
-//            List<ShopType> shopTypeList=new ArrayList<>();
-//            for (Object shopType : shopTypes) {
-//                shopTypeList.add((ShopType) shopType);
-//            }
-//            return Result.ok(shopTypeList);
-//        }
-//        List<ShopType> shopTypeList = this.list();
-//        for (ShopType shopType : shopTypeList) {
-//            redisTemplate.opsForZSet().add("cache:shopType",shopType,shopType.getSort());
-//        }
-//        return Result.ok(shopTypeList);
+        // 与queryAllTypes的缓存格式一致：List按元素类型的数组缓存
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_TYPE_KEY + ALL_TYPES, shopTypeList.toArray(new ShopType[0]),
+                CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+        return shopTypeList.size();
     }
 }
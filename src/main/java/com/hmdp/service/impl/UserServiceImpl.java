@@ -11,6 +11,9 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheQuery;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
@@ -18,9 +21,14 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 import static com.hmdp.utils.RedisConstants.LOGIN_CODE_KEY;
 import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
 import static com.hmdp.utils.SystemConstants.USER_NICK_NAME_PREFIX;
@@ -39,6 +47,12 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private RedisTemplate redisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         //1.校验手机号
@@ -95,6 +109,46 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(token);
     }
 
+    @Override
+    public List<UserDTO> queryUserDTOs(List<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(CACHE_USER_TTL, TimeUnit.MINUTES, CACHE_USER_KEY, ids,
+                UserDTO.class, missIds -> listByIds(missIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toList()),
+                UserDTO::getId);
+    }
+
+    @Override
+    @CacheQuery(keyPrefix = CACHE_USER_KEY, ttl = CACHE_USER_TTL)
+    public UserDTO queryUserDTO(Long id) {
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    /**
+     * 新增用户后清除该id上缓存的空值，查询过下一个自增id时新注册的用户才能被查到
+     */
+    @Override
+    public boolean save(User user) {
+        boolean saved = super.save(user);
+        if (saved) {
+            cacheInvalidator.invalidate(Collections.singletonList(CACHE_USER_KEY + user.getId()));
+        }
+        return saved;
+    }
+
+    /**
+     * 修改用户后清除缓存，昵称、头像等修改立即生效
+     */
+    @Override
+    public boolean updateById(User user) {
+        boolean updated = super.updateById(user);
+        if (updated) {
+            cacheInvalidator.invalidate(Collections.singletonList(CACHE_USER_KEY + user.getId()));
+        }
+        return updated;
+    }
+
     private User createUserWithPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
@@ -1,25 +1,70 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.OrderBatchResult;
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillStockShard;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillStockShardService;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutRegistry;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
-import org.springframework.data.redis.core.RedisTemplate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.Record;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_STREAMS_KEY;
 
 /**
  * <p>
@@ -29,97 +74,608 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_TAKE_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_ROLLBACK_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+
+        SECKILL_TAKE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        SECKILL_TAKE_SCRIPT.setResultType(Long.class);
+
+        SECKILL_ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_ROLLBACK_SCRIPT.setLocation(new ClassPathResource("seckill_rollback.lua"));
+        SECKILL_ROLLBACK_SCRIPT.setResultType(Long.class);
+    }
+
     @Resource
     private ISeckillVoucherService iSeckillVoucherService;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private ISeckillStockShardService seckillStockShardService;
+
+    @Resource
+    private IdWorker idWorker;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedisTemplate redisTemplate;
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
 
+    /**
+     * 代理对象，消费线程中通过它调用事务方法
+     */
+    @Lazy
     @Resource
-    private RedissonClient redissonClient;
+    private IVoucherOrderService self;
+
+    @Value("${hmdp.seckill.order-consumers:1}")
+    private int orderConsumers;
+
+    @Value("${hmdp.seckill.batch-size:100}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.batch-window-millis:10}")
+    private long batchWindowMillis;
+
+    @Value("${hmdp.seckill.idle-sleep-millis:50}")
+    private long idleSleepMillis;
+
+    @Value("${hmdp.seckill.stream-refresh-millis:1000}")
+    private long streamRefreshMillis;
+
+    @Value("${hmdp.seckill.pending-idle-millis:60000}")
+    private long pendingIdleMillis;
+
+    @Value("${hmdp.seckill.max-deliveries:5}")
+    private long maxDeliveries;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    private ExecutorService seckillOrderExecutor;
+
+    private ScheduledExecutorService pendingRecoveryExecutor;
+
+    private volatile boolean running = true;
+
+    private String consumerPrefix;
+
+    /**
+     * 消费线程轮询的订单队列，每个库存分片一个，定时从redis刷新
+     */
+    private volatile List<String> orderStreams = Collections.emptyList();
+
+    @PostConstruct
+    private void init() {
+        refreshOrderStreams();
+        // 消费者名称在节点内固定，重启后能接着处理自己遗留的pending消息
+        consumerPrefix = NetUtil.getLocalHostName() + ":" + serverPort + "-c";
+        seckillOrderExecutor = Executors.newFixedThreadPool(orderConsumers);
+        for (int i = 0; i < orderConsumers; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(consumerPrefix + i));
+        }
+        pendingRecoveryExecutor = Executors.newSingleThreadScheduledExecutor();
+        long period = Math.max(pendingIdleMillis / 2, 1000);
+        pendingRecoveryExecutor.scheduleWithFixedDelay(this::recoverIdlePendingOrders, period, period,
+                TimeUnit.MILLISECONDS);
+        pendingRecoveryExecutor.scheduleWithFixedDelay(this::refreshOrderStreams, streamRefreshMillis,
+                streamRefreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        running = false;
+        pendingRecoveryExecutor.shutdownNow();
+        seckillOrderExecutor.shutdown();
+        // 消费线程最多阻塞一个攒批窗口读取消息，等待其处理完当前订单
+        if (!seckillOrderExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+            seckillOrderExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 读取加载秒杀券时登记的订单队列并确保消费者组存在；
+     * 秒杀结束超过pending空闲时间且已经消费完的队列不再轮询
+     */
+    private void refreshOrderStreams() {
+        try {
+            Set<String> members = stringRedisTemplate.opsForSet().members(SECKILL_STREAMS_KEY);
+            List<String> streams = new ArrayList<>(members == null ? 0 : members.size());
+            for (String stream : members == null ? Collections.<String>emptySet() : members) {
+                if (isDrained(stream)) {
+                    stringRedisTemplate.opsForSet().remove(SECKILL_STREAMS_KEY, stream);
+                    stringRedisTemplate.delete(stream);
+                    continue;
+                }
+                createOrderGroupIfAbsent(stream);
+                streams.add(stream);
+            }
+            orderStreams = streams;
+        } catch (Exception e) {
+            log.error("刷新订单队列失败", e);
+        }
+    }
+
+    private boolean isDrained(String stream) {
+        SeckillVoucher meta = iSeckillVoucherService.getSeckillMeta(SeckillKeys.parseStream(stream)[0]);
+        if (meta != null && meta.getEndTime().plusNanos(TimeUnit.MILLISECONDS.toNanos(pendingIdleMillis))
+                .isAfter(LocalDateTime.now())) {
+            return false;
+        }
+        Long size = stringRedisTemplate.opsForStream().size(stream);
+        return size == null || size == 0;
+    }
+
+    private void createOrderGroupIfAbsent(String stream) {
+        try {
+            // XGROUP CREATE stream.orders:{voucherId:shard} g1 0 MKSTREAM
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    ((StringRedisConnection) connection).xGroupCreate(stream, ReadOffset.from("0"),
+                            SECKILL_ORDER_GROUP, true));
+        } catch (RedisSystemException e) {
+            // 消费者组已存在
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 依次轮询各分片的订单队列；每个队列的key在不同的slot，不能一次阻塞读取多个队列，
+     * 所有队列都没有消息时休眠一会儿
+     */
+    private class VoucherOrderHandler implements Runnable {
+
+        private final String consumer;
+
+        VoucherOrderHandler(String consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void run() {
+            // 先处理本消费者上次宕机前未确认的消息
+            for (String stream : orderStreams) {
+                handlePendingList(stream);
+            }
+            while (running) {
+                boolean idle = true;
+                for (String stream : orderStreams) {
+                    if (!running) {
+                        break;
+                    }
+                    try {
+                        // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders:{..} >
+                        List<MapRecord<String, Object, Object>> list = readOrderBatch(stream);
+                        // 2.判断消息获取是否成功
+                        if (list.isEmpty()) {
+                            // 2.1如果获取失败，说明没有消息，继续下一个队列
+                            continue;
+                        }
+                        idle = false;
+                        // 3.如果获取成功，批量处理订单并ACK
+                        handleOrderRecords(stream, toOrders(list));
+                    } catch (Exception e) {
+                        if (!running) {
+                            break;
+                        }
+                        log.error("处理订单异常", e);
+                        handlePendingList(stream);
+                    }
+                }
+                if (idle && !sleepIdle()) {
+                    break;
+                }
+            }
+        }
+
+        private boolean sleepIdle() {
+            try {
+                Thread.sleep(idleSleepMillis);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * 攒批：首次不阻塞读取，拿到消息后在批处理窗口内继续读取，直到凑满一批或窗口结束
+         */
+        private List<MapRecord<String, Object, Object>> readOrderBatch(String stream) {
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+            List<MapRecord<String, Object, Object>> list = readOrders(stream, batchSize, null);
+            if (list == null || list.isEmpty()) {
+                return batch;
+            }
+            batch.addAll(list);
+            long deadline = System.currentTimeMillis() + batchWindowMillis;
+            while (running && batch.size() < batchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                list = readOrders(stream, batchSize - batch.size(), Duration.ofMillis(remaining));
+                if (list == null || list.isEmpty()) {
+                    break;
+                }
+                batch.addAll(list);
+            }
+            return batch;
+        }
+
+        private List<MapRecord<String, Object, Object>> readOrders(String stream, int count, Duration block) {
+            StreamReadOptions options = StreamReadOptions.empty().count(count);
+            return stringRedisTemplate.opsForStream().read(
+                    Consumer.from(SECKILL_ORDER_GROUP, consumer),
+                    block == null ? options : options.block(block),
+                    StreamOffset.create(stream, ReadOffset.lastConsumed())
+            );
+        }
+
+        private void handlePendingList(String stream) {
+            while (running) {
+                try {
+                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders:{..} 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, consumer),
+                            StreamReadOptions.empty().count(batchSize),
+                            StreamOffset.create(stream, ReadOffset.from("0"))
+                    );
+                    // 2.判断消息获取是否成功
+                    if (list == null || list.isEmpty()) {
+                        // 2.1如果获取失败，说明pending-list没有异常消息，结束循环
+                        break;
+                    }
+                    // 3.如果获取成功，批量处理订单并ACK
+                    handleOrderRecords(stream, toOrders(list));
+                } catch (Exception e) {
+                    // 仍然失败的消息留在pending-list中，空闲超时后由恢复线程认领重试，避免在此空转
+                    log.error("处理pending-list订单异常", e);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 认领其他消费者（节点宕机或线程卡死）长时间未确认的消息并处理，
+     * 超过最大投递次数的消息放弃处理并回滚redis预扣
+     */
+    private void recoverIdlePendingOrders() {
+        String recoveryConsumer = consumerPrefix + "-recovery";
+        for (String stream : orderStreams) {
+            try {
+                PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                        .pending(stream, SECKILL_ORDER_GROUP, Range.unbounded(), 100);
+                for (PendingMessage pendingMessage : pendingMessages) {
+                    if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() < pendingIdleMillis) {
+                        continue;
+                    }
+                    // XCLAIM stream.orders:{..} g1 recovery minIdle id，被其他节点抢先认领时返回空
+                    List<StringRecord> claimed = stringRedisTemplate.execute(
+                            (RedisCallback<List<StringRecord>>) connection -> claim(connection, stream,
+                                    recoveryConsumer, pendingMessage.getId()));
+                    if (claimed == null || claimed.isEmpty()) {
+                        continue;
+                    }
+                    StringRecord record = claimed.get(0);
+                    if (pendingMessage.getTotalDeliveryCount() >= maxDeliveries) {
+                        log.error("订单消息超过最大投递次数，放弃处理：{}", record.getValue());
+                        VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(),
+                                true);
+                        rollbackSeckill(voucherOrder, false);
+                        acknowledge(stream, record.getId());
+                        continue;
+                    }
+                    handleOrderRecords(stream, toOrders(claimed));
+                }
+            } catch (Exception e) {
+                log.error("认领pending订单异常, stream={}", stream, e);
+            }
+        }
+    }
+
+    private List<StringRecord> claim(RedisConnection connection, String stream, String consumer, RecordId id) {
+        return ((StringRedisConnection) connection).xClaim(stream, SECKILL_ORDER_GROUP, consumer,
+                Duration.ofMillis(pendingIdleMillis), id);
+    }
+
+    private static Map<RecordId, VoucherOrder> toOrders(List<? extends Record<String, ? extends Map<?, ?>>> records) {
+        Map<RecordId, VoucherOrder> orders = new LinkedHashMap<>(records.size());
+        for (Record<String, ? extends Map<?, ?>> record : records) {
+            // 解析消息中的订单信息
+            orders.put(record.getId(), BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+        return orders;
+    }
+
+    /**
+     * 一个订单队列只包含同一秒杀券同一库存分片的订单，合并为一次扣库存和一次批量插入，并逐单处理结果
+     */
+    private void handleOrderRecords(String stream, Map<RecordId, VoucherOrder> orders) {
+        long[] voucherShard = SeckillKeys.parseStream(stream);
+        // 批量创建订单，消息可能重复投递，createVoucherOrders保证幂等
+        OrderBatchResult result = self.createVoucherOrders(voucherShard[0], (int) voucherShard[1],
+                new ArrayList<>(orders.values()));
+        for (VoucherOrder order : result.getDuplicated()) {
+            // 用户在数据库中已有订单（如redis数据丢失后再次下单），只归还库存，保留购买资格
+            log.error("重复购买的订单被拒绝，归还redis预扣库存：{}", order);
+            rollbackSeckill(order, true);
+        }
+        for (VoucherOrder order : result.getOutOfStock()) {
+            // 数据库库存不足（库存与redis不一致），归还redis中预扣的库存和购买资格
+            log.error("订单落库被拒绝，回滚redis预扣：{}", order);
+            rollbackSeckill(order, false);
+        }
+        // ACK确认 XACK stream.orders:{..} g1 id...，已确认的消息不再保留
+        acknowledge(stream, orders.keySet().toArray(new RecordId[0]));
+    }
+
+    private void acknowledge(String stream, RecordId... ids) {
+        stringRedisTemplate.opsForStream().acknowledge(stream, SECKILL_ORDER_GROUP, ids);
+        stringRedisTemplate.opsForStream().delete(stream, ids);
+    }
 
     public Result seckillVoucher(Long voucherId) {
-        // 查询优惠卷
-        SeckillVoucher voucher = iSeckillVoucherService.getById(voucherId);
-        // 判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
+        // 0.本地售罄标记，无需访问redis
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足！");
+        }
+        // 1.查询秒杀券元数据（本地缓存），判断秒杀时间
+        SeckillVoucher voucher = iSeckillVoucherService.getSeckillMeta(voucherId);
+        if (voucher == null) {
+            return Result.fail("秒杀券不存在！");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.getBeginTime().isAfter(now)) {
             // 尚未开始
             return Result.fail("秒杀尚未开始");
         }
-        // 判断秒杀是否已经结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            // 尚未开始
+        if (voucher.getEndTime().isBefore(now)) {
+            // 已经结束
             return Result.fail("秒杀已经结束");
         }
-
-        // 判断库存是否充足
-        if (voucher.getStock() < 1) {
-            // 库存不足
-            return Result.fail("库存不足！");
-        }
         Long userId = UserHolder.getUser().getId();
-        // 创建锁对象
-//        SimpleRedisLock simpleRedisLock = new SimpleRedisLock("order:" + userId, redisTemplate);
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        // 获取锁
-        boolean isLock = lock.tryLock();
-        // 判断是否获取锁成功
-        if (!isLock) {
-            // 获取锁失败，返回错误或重试
-            return Result.fail("一个人不允许重复下单");
+        int shards = voucher.getStockShards();
+        int home = SeckillKeys.home(userId, shards);
+        // 2.在用户所属分片执行lua脚本，判断秒杀时间、库存、一人一单，预扣库存
+        int r = executeSeckillScript(voucherId, userId, shards, home);
+        if (r == 5) {
+            // 2.1redis中的库存丢失（如redis重启），从数据库重新加载一次后重试
+            SeckillVoucher stock = iSeckillVoucherService.getById(voucherId);
+            if (stock == null) {
+                return Result.fail("秒杀券不存在！");
+            }
+            iSeckillVoucherService.loadSeckillStock(stock);
+            r = executeSeckillScript(voucherId, userId, shards, home);
         }
+        int stockShard = home;
+        if (r == 6) {
+            // 2.2所属分片库存耗尽，购买资格已占住，依次到兄弟分片扣库存
+            stockShard = takeSiblingStock(voucherId, userId, shards, home);
+            r = stockShard < 0 ? 1 : 0;
+        }
+        // 3.判断结果是否为0
+        if (r != 0) {
+            // 3.1不为0，代表没有购买资格；库存不足时标记售罄并通知其他节点
+            if (r == 1) {
+                seckillSoldOutRegistry.markSoldOut(voucherId);
+            }
+            return Result.fail(seckillFailMessage(r));
+        }
+        // 4.有购买资格，再生成订单id并发送订单消息，被拒绝的请求不消耗id
+        long orderId;
         try {
-            // 获取代理对象（事务）
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucher);
-
-        } finally {
-            lock.unlock();
+            orderId = idWorker.nextId("order");
+            sendOrderMessage(voucherId, stockShard, userId, orderId);
+        } catch (Exception e) {
+            // 订单消息没有发出，归还预扣的库存和购买资格
+            log.error("发送订单消息失败, voucherId={}, userId={}", voucherId, userId, e);
+            rollbackSeckill(new VoucherOrder().setVoucherId(voucherId).setUserId(userId), false);
+            return Result.fail("下单失败，请重试");
         }
+        // 5.订单已进入消息队列，由后台异步落库，直接返回订单id
+        return Result.ok(orderId);
+    }
 
+    /**
+     * 发送订单消息到扣减库存的分片的队列 XADD stream.orders:{voucherId:shard} * userId v1 voucherId v2 id v3，
+     * 该队列的消费者只扣减数据库中对应的分片行
+     */
+    private void sendOrderMessage(Long voucherId, int shard, Long userId, long orderId) {
+        Map<String, String> message = new LinkedHashMap<>(4);
+        message.put("userId", userId.toString());
+        message.put("voucherId", voucherId.toString());
+        message.put("id", String.valueOf(orderId));
+        stringRedisTemplate.opsForStream()
+                .add(StreamRecords.string(message).withStreamKey(SeckillKeys.stream(voucherId, shard)));
     }
 
     @Transactional
-    public Result createVoucherOrder(SeckillVoucher voucher) {
-        Long userId = UserHolder.getUser().getId();
-        // 实现一人一单
+    public OrderBatchResult createVoucherOrders(Long voucherId, int shard, List<VoucherOrder> voucherOrders) {
+        OrderBatchResult result = new OrderBatchResult();
+        // 1.幂等：消息重复投递时订单已存在，直接视为成功
+        Set<Long> orderIds = voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        Set<Long> savedIds = this.listByIds(orderIds).stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        // 2.实现一人一单（redis已做判断，这里兜底）：查询本批用户中已经下过单的
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
         LambdaQueryWrapper<VoucherOrder> lambdaQueryWrapper = new LambdaQueryWrapper<>();
-        // 查询订单
-        lambdaQueryWrapper.eq(VoucherOrder::getUserId, userId).eq(VoucherOrder::getVoucherId, voucher.getVoucherId());
-        int count = (int) this.count(lambdaQueryWrapper);
-        // 判断是否存在
-        if (count > 0) {
-            // 用户已经购买
-            return Result.fail("用户已经购买过一次！");
-        }
-
-        // 扣减库存
-        LambdaUpdateWrapper<SeckillVoucher> queryWrapper = new LambdaUpdateWrapper<>();
-        queryWrapper.set(SeckillVoucher::getStock, voucher.getStock() - 1);
-        queryWrapper.eq(SeckillVoucher::getVoucherId, voucher.getVoucherId());
-        queryWrapper.gt(SeckillVoucher::getStock, 0);
-        boolean success = iSeckillVoucherService.update(queryWrapper);
-        if (!success) {
-            //扣减失败
-            return Result.fail("库存不足！");
+        lambdaQueryWrapper.select(VoucherOrder::getUserId)
+                .eq(VoucherOrder::getVoucherId, voucherId)
+                .in(VoucherOrder::getUserId, userIds);
+        Set<Long> boughtUserIds = this.list(lambdaQueryWrapper).stream()
+                .map(VoucherOrder::getUserId).collect(Collectors.toCollection(HashSet::new));
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            if (savedIds.contains(voucherOrder.getId())) {
+                continue;
+            }
+            // 同一批次内的重复用户也只保留第一单
+            if (!boughtUserIds.add(voucherOrder.getUserId())) {
+                log.error("用户已经购买过一次！userId={}, voucherId={}", voucherOrder.getUserId(), voucherId);
+                result.getDuplicated().add(voucherOrder);
+                continue;
+            }
+            toSave.add(voucherOrder);
+        }
+        if (toSave.isEmpty()) {
+            return result;
         }
 
-        // 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        // 订单ID
-        long orderId = redisIdWorker.nextId("order");
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucher.getVoucherId());
-        this.save(voucherOrder);
-        // 返回订单id
-        return Result.ok(orderId);
+        // 3.合并扣减库存，库存不足以满足整批时按消息顺序满足前面的订单
+        int n = toSave.size();
+        int accepted = decreaseStock(voucherId, shard, n);
+        if (accepted < n) {
+            log.error("库存不足！voucherId={}, 需要{}，扣减{}", voucherId, n, accepted);
+            result.getOutOfStock().addAll(toSave.subList(accepted, n));
+            toSave = new ArrayList<>(toSave.subList(0, accepted));
+            if (toSave.isEmpty()) {
+                return result;
+            }
+        }
+
+        // 4.批量创建订单 INSERT INTO tb_voucher_order (...) VALUES (...), (...)
+        getBaseMapper().insertBatch(toSave);
+        return result;
+    }
+
+    /**
+     * 扣减数据库库存，分片模式只扣减订单所在分片的行，避免所有订单争抢同一行的行锁
+     *
+     * @return 扣减成功的数量
+     */
+    private int decreaseStock(Long voucherId, int shard, int n) {
+        int shards = iSeckillVoucherService.getStockShards(voucherId);
+        if (shards <= 1) {
+            // UPDATE tb_seckill_voucher SET stock = stock - n WHERE voucher_id = ? AND stock >= n
+            if (decreaseVoucherStock(voucherId, n)) {
+                return n;
+            }
+            // 库存不足以满足整批，加锁读取剩余库存
+            SeckillVoucher voucher = iSeckillVoucherService.query()
+                    .eq("voucher_id", voucherId).last("FOR UPDATE").one();
+            int accepted = Math.min(voucher == null ? 0 : Math.max(voucher.getStock(), 0), n);
+            return accepted > 0 && decreaseVoucherStock(voucherId, accepted) ? accepted : 0;
+        }
+        // UPDATE tb_seckill_stock_shard SET stock = stock - n WHERE voucher_id = ? AND shard = ? AND stock >= n
+        if (decreaseShardStock(voucherId, shard, n)) {
+            return n;
+        }
+        // 本分片行不够（redis中的库存在分片间挪动过），加锁读取所有分片行，从本分片开始依次扣减
+        List<SeckillStockShard> rows = seckillStockShardService.query()
+                .eq("voucher_id", voucherId).orderByAsc("shard").last("FOR UPDATE").list();
+        rows.sort(Comparator.comparingInt(row -> Math.floorMod(row.getShard() - shard, shards)));
+        int remaining = n;
+        for (SeckillStockShard row : rows) {
+            int take = Math.min(Math.max(row.getStock(), 0), remaining);
+            if (take > 0 && decreaseShardStock(voucherId, row.getShard(), take)) {
+                remaining -= take;
+            }
+            if (remaining == 0) {
+                break;
+            }
+        }
+        return n - remaining;
+    }
+
+    private boolean decreaseVoucherStock(Long voucherId, int n) {
+        LambdaUpdateWrapper<SeckillVoucher> updateWrapper = new LambdaUpdateWrapper<>();
+        updateWrapper.setSql("stock = stock - " + n);
+        updateWrapper.eq(SeckillVoucher::getVoucherId, voucherId);
+        updateWrapper.ge(SeckillVoucher::getStock, n);
+        return iSeckillVoucherService.update(updateWrapper);
+    }
+
+    private boolean decreaseShardStock(Long voucherId, int shard, int n) {
+        LambdaUpdateWrapper<SeckillStockShard> updateWrapper = new LambdaUpdateWrapper<>();
+        updateWrapper.setSql("stock = stock - " + n);
+        updateWrapper.eq(SeckillStockShard::getVoucherId, voucherId);
+        updateWrapper.eq(SeckillStockShard::getShard, shard);
+        updateWrapper.ge(SeckillStockShard::getStock, n);
+        return seckillStockShardService.update(updateWrapper);
+    }
+
+    private int executeSeckillScript(Long voucherId, Long userId, int shards, int home) {
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(SeckillKeys.stock(voucherId, home), SeckillKeys.order(voucherId, home)),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), shards > 1 ? "1" : "0"
+        );
+        return result == null ? -1 : result.intValue();
+    }
+
+    /**
+     * 所属分片耗尽后依次从兄弟分片扣一个库存，每个分片单独执行脚本
+     *
+     * @return 扣到库存的分片，都没有库存时释放占住的购买资格并返回-1
+     */
+    private int takeSiblingStock(Long voucherId, Long userId, int shards, int home) {
+        try {
+            for (int i = 1; i < shards; i++) {
+                int shard = (home + i) % shards;
+                Long taken = stringRedisTemplate.execute(SECKILL_TAKE_SCRIPT,
+                        Collections.singletonList(SeckillKeys.stock(voucherId, shard)), "1");
+                if (taken != null && taken > 0) {
+                    return shard;
+                }
+            }
+        } catch (RuntimeException e) {
+            stringRedisTemplate.opsForSet().remove(SeckillKeys.order(voucherId, home), userId.toString());
+            throw e;
+        }
+        stringRedisTemplate.opsForSet().remove(SeckillKeys.order(voucherId, home), userId.toString());
+        return -1;
+    }
+
+    /**
+     * 回滚redis中的预扣，库存归还到用户所属分片，与已购用户在同一个slot，一个脚本完成
+     *
+     * @param keepBuyer true：只归还库存，保留已购用户（数据库已有该用户的订单）；false：同时归还购买资格
+     */
+    private void rollbackSeckill(VoucherOrder order, boolean keepBuyer) {
+        Long voucherId = order.getVoucherId();
+        Long userId = order.getUserId();
+        try {
+            int home = SeckillKeys.home(userId, iSeckillVoucherService.getStockShards(voucherId));
+            Long restored = stringRedisTemplate.execute(
+                    SECKILL_ROLLBACK_SCRIPT,
+                    Arrays.asList(SeckillKeys.stock(voucherId, home), SeckillKeys.order(voucherId, home),
+                            SeckillKeys.rollback(voucherId, home)),
+                    userId.toString(), keepBuyer ? "1" : "0", String.valueOf(order.getId())
+            );
+            if (restored != null && restored == 1) {
+                // 库存已归还，清除售罄标记
+                seckillSoldOutRegistry.clearSoldOut(voucherId);
+            }
+        } catch (Exception e) {
+            log.error("回滚秒杀预扣库存失败, voucherId={}, userId={}", voucherId, userId, e);
+        }
+    }
+
+    private static String seckillFailMessage(int r) {
+        switch (r) {
+            case 1:
+                return "库存不足！";
+            case 2:
+                return "不能重复下单";
+            case 3:
+                return "秒杀尚未开始";
+            case 4:
+                return "秒杀已经结束";
+            default:
+                return "秒杀券不存在！";
+        }
     }
 
 }
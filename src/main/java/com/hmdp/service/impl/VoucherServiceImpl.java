@@ -1,18 +1,26 @@
 package com.hmdp.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheInvalidate;
+import com.hmdp.utils.CacheQuery;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.SeckillSoldOutRegistry;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_TTL;
+
 /**
  * <p>
  * 服务实现类
@@ -27,16 +35,29 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    /**
+     * 秒杀券的库存随下单变化，缓存时间较短
+     */
     @Override
-    public Result queryVoucherOfShop(Long shopId) {
+    @CacheQuery(keyPrefix = CACHE_SHOP_VOUCHER_KEY, ttl = CACHE_SHOP_VOUCHER_TTL, strategy = CacheStrategy.MUTEX,
+            elementType = Voucher.class)
+    public List<Voucher> queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
-        return Result.ok(vouchers);
+        return getBaseMapper().queryVoucherOfShop(shopId);
+    }
+
+    @Override
+    @CacheInvalidate(keyPrefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
     }
 
     @Override
     @Transactional
+    @CacheInvalidate(keyPrefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -46,6 +67,26 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
-        seckillVoucherService.save(seckillVoucher);
+        seckillVoucher.setStockShards(voucher.getStockShards());
+        seckillVoucherService.saveSeckillVoucher(seckillVoucher);
+        // 事务提交后再写入redis，避免回滚后redis中留下不存在的秒杀券，或消费者读到未提交的数据
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publishSeckillVoucher(seckillVoucher);
+                }
+            });
+        } else {
+            publishSeckillVoucher(seckillVoucher);
+        }
+    }
+
+    private void publishSeckillVoucher(SeckillVoucher seckillVoucher) {
+        // 保存秒杀库存到redis
+        seckillVoucherService.loadSeckillStock(seckillVoucher);
+        // 新的库存可售，清除各节点的售罄标记和不存在标记
+        seckillSoldOutRegistry.clearSoldOut(seckillVoucher.getVoucherId());
+        seckillVoucherService.evictSeckillMeta(seckillVoucher.getVoucherId());
     }
 }
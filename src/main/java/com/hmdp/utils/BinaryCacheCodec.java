@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 紧凑的二进制缓存格式：
+ * <pre>
+ * | magic(1) | flags(1) | 逻辑过期时间毫秒(8) | [过期时间毫秒(8) | 查询耗时毫秒(4)] | smile编码的对象（可能经过deflate压缩） |
+ * </pre>
+ * 方括号中的部分只在flags包含FLAG_REFRESH_META时存在，用于提前刷新。
+ * 逻辑过期时间是定长头部，读取时不需要先解析RedisData再解析一遍data。
+ * 开启read-legacy时同时能读取原有的json格式，用于迁移期间新旧数据共存。
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec.format", havingValue = "binary")
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xB1;
+    private static final byte FLAG_NULL = 1;
+    private static final byte FLAG_COMPRESSED = 1 << 1;
+    private static final byte FLAG_REFRESH_META = 1 << 2;
+    private static final int HEADER_LENGTH = 10;
+    private static final int REFRESH_META_LENGTH = 12;
+
+    private final ObjectMapper mapper = new ObjectMapper(new SmileFactory())
+            .findAndRegisterModules()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private final JsonCacheCodec legacyCodec = new JsonCacheCodec();
+
+    /**
+     * 编码后超过该字节数时压缩，小于等于0表示不压缩
+     */
+    private final int compressThreshold;
+
+    private final boolean readLegacy;
+
+    public BinaryCacheCodec(@Value("${hmdp.cache.codec.compress-threshold:1024}") int compressThreshold,
+                            @Value("${hmdp.cache.codec.read-legacy:true}") boolean readLegacy) {
+        this.compressThreshold = compressThreshold;
+        this.readLegacy = readLegacy;
+    }
+
+    @Override
+    public byte[] encode(CacheEntry entry) {
+        byte flags = 0;
+        byte[] payload;
+        if (entry.getData() == null) {
+            flags |= FLAG_NULL;
+            payload = new byte[0];
+        } else {
+            try {
+                payload = mapper.writeValueAsBytes(entry.getData());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (compressThreshold > 0 && payload.length > compressThreshold) {
+                byte[] compressed = deflate(payload);
+                if (compressed.length < payload.length) {
+                    flags |= FLAG_COMPRESSED;
+                    payload = compressed;
+                }
+            }
+        }
+        boolean refreshMeta = entry.getExpireAt() > 0 || entry.getComputeMillis() > 0;
+        if (refreshMeta) {
+            flags |= FLAG_REFRESH_META;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + (refreshMeta ? REFRESH_META_LENGTH : 0) + payload.length)
+                .put(MAGIC)
+                .put(flags)
+                .putLong(entry.getLogicalExpireAt());
+        if (refreshMeta) {
+            buffer.putLong(entry.getExpireAt()).putInt((int) Math.min(entry.getComputeMillis(), Integer.MAX_VALUE));
+        }
+        return buffer.put(payload).array();
+    }
+
+    @Override
+    public CacheEntry decode(byte[] bytes, Class<?> type, boolean logicalExpire) {
+        if (bytes.length < HEADER_LENGTH || bytes[0] != MAGIC) {
+            // 原有的json格式
+            return readLegacy && JsonCacheCodec.isJdkSerialized(bytes)
+                    ? legacyCodec.decode(bytes, type, logicalExpire) : null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.get();
+        byte flags = buffer.get();
+        long logicalExpireAt = buffer.getLong();
+        long expireAt = 0;
+        long computeMillis = 0;
+        if ((flags & FLAG_REFRESH_META) != 0) {
+            expireAt = buffer.getLong();
+            computeMillis = buffer.getInt();
+        }
+        if ((flags & FLAG_NULL) != 0) {
+            return new CacheEntry(null, logicalExpireAt, expireAt, computeMillis);
+        }
+        byte[] payload = Arrays.copyOfRange(bytes, buffer.position(), bytes.length);
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            payload = inflate(payload);
+        }
+        try {
+            return new CacheEntry(mapper.readValue(payload, type), logicalExpireAt, expireAt, computeMillis);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buf = new byte[1024];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+            byte[] buf = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("压缩数据不完整");
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new RuntimeException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.Order;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 处理{@link CacheQuery}和{@link CacheInvalidate}注解。
+ * <p>
+ * 优先级低于事务切面，缓存失效消息与业务数据在同一个事务中写入，由CacheInvalidator在提交后删除缓存。
+ */
+@Aspect
+@Component
+@Order(1)
+public class CacheAspect {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    @Around("@annotation(com.hmdp.utils.CacheQuery)")
+    public Object query(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = getMethod(joinPoint);
+        CacheQuery cacheQuery = AnnotatedElementUtils.findMergedAnnotation(method, CacheQuery.class);
+        Object id = resolveKey(cacheQuery.key(), method, joinPoint.getArgs());
+        // List按元素类型的数组缓存
+        boolean isList = List.class.isAssignableFrom(method.getReturnType());
+        Class<Object> type = (Class<Object>) (isList
+                ? Array.newInstance(cacheQuery.elementType(), 0).getClass() : method.getReturnType());
+        Function<Object, Object> dbFallback = ignored -> {
+            Object r = proceed(joinPoint);
+            return isList && r != null
+                    ? ((List<?>) r).toArray((Object[]) Array.newInstance(cacheQuery.elementType(), 0)) : r;
+        };
+        Object r;
+        switch (cacheQuery.strategy()) {
+            case MUTEX:
+                r = cacheClient.queryWithMutex(cacheQuery.keyPrefix(), id, type, dbFallback, cacheQuery.ttl(),
+                        cacheQuery.unit(), cacheQuery.cacheNull());
+                break;
+            case LOGICAL_EXPIRE:
+                r = cacheClient.queryWithLogicalExpire(cacheQuery.keyPrefix(), id, type, dbFallback, cacheQuery.ttl(),
+                        cacheQuery.unit(), cacheQuery.cacheNull());
+                break;
+            default:
+                r = cacheClient.queryWithPassThrough(cacheQuery.ttl(), cacheQuery.unit(), cacheQuery.keyPrefix(), id,
+                        type, dbFallback, cacheQuery.cacheNull());
+                break;
+        }
+        // 返回新的List，调用方修改时不影响缓存中的数据
+        return isList && r != null ? new ArrayList<>(Arrays.asList((Object[]) r)) : r;
+    }
+
+    @Around("@annotation(com.hmdp.utils.CacheInvalidate) || @annotation(com.hmdp.utils.CacheInvalidate.List)")
+    public Object invalidate(ProceedingJoinPoint joinPoint) throws Throwable {
+        Object r = joinPoint.proceed();
+        Method method = getMethod(joinPoint);
+        List<String> keys = new ArrayList<>();
+        for (CacheInvalidate invalidate : AnnotatedElementUtils.getMergedRepeatableAnnotations(method,
+                CacheInvalidate.class, CacheInvalidate.List.class)) {
+            Object id = resolveKey(invalidate.key(), method, joinPoint.getArgs());
+            if (id != null) {
+                keys.add(invalidate.keyPrefix() + id);
+            }
+        }
+        cacheInvalidator.invalidate(keys);
+        return r;
+    }
+
+    /**
+     * 取实现类上的方法，接口方法上没有注解
+     */
+    private static Method getMethod(ProceedingJoinPoint joinPoint) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return AopUtils.getMostSpecificMethod(method, AopUtils.getTargetClass(joinPoint.getTarget()));
+    }
+
+    private Object resolveKey(String expression, Method method, Object[] args) {
+        if (StrUtil.isEmpty(expression)) {
+            return args.length == 0 ? "" : args[0];
+        }
+        MethodBasedEvaluationContext context =
+                new MethodBasedEvaluationContext(null, method, args, parameterNameDiscoverer);
+        return expressions.computeIfAbsent(expression, parser::parseExpression).getValue(context);
+    }
+
+    private static Object proceed(ProceedingJoinPoint joinPoint) {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+}
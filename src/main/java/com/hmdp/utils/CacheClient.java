@@ -1,173 +1,861 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_KEY;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 
+@Slf4j
 @Component
 public class CacheClient {
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final long LOCK_RETRY_INTERVAL_MILLIS = 50;
+    private static final String DEGRADED_FLIGHT_PREFIX = "degraded:";
+
     @Autowired
     private RedisTemplate redisTemplate;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private CacheCodec cacheCodec;
+
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+
+    @Autowired
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Value("${hmdp.cache.local.enabled:false}")
+    private boolean localCacheEnabled;
+
+    @Value("${hmdp.cache.local.max-size:10000}")
+    private int localCacheMaxSize;
+
+    @Value("${hmdp.cache.local.ttl-seconds:10}")
+    private long localCacheTtlSeconds;
+
+    @Value("${hmdp.cache.hot-key.local-max-size:1000}")
+    private int hotCacheMaxSize;
+
+    @Value("${hmdp.cache.hot-key.local-ttl-millis:3000}")
+    private long hotCacheTtlMillis;
+
+    @Value("${hmdp.cache.lock-wait-millis:1000}")
+    private long lockWaitMillis;
+
+    @Value("${hmdp.cache.load-wait-millis:3000}")
+    private long loadWaitMillis;
+
+    @Value("${hmdp.cache.ttl-jitter-ratio:0.1}")
+    private double ttlJitterRatio;
+
+    @Value("${hmdp.cache.early-refresh.enabled:true}")
+    private boolean earlyRefreshEnabled;
+
+    @Value("${hmdp.cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
+
+    @Value("${hmdp.cache.degrade.stale-max-size:10000}")
+    private int staleCacheMaxSize;
+
+    @Value("${hmdp.cache.degrade.stale-ttl-seconds:600}")
+    private long staleCacheTtlSeconds;
+
+    @Value("${hmdp.cache.degrade.db-concurrency:20}")
+    private int degradeDbConcurrency;
+
+    @Value("${hmdp.cache.degrade.db-wait-millis:200}")
+    private long degradeDbWaitMillis;
+
+    /**
+     * 正在加载的key -> 加载结果
+     */
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    /**
+     * key前缀 -> 存在性过滤器
+     */
+    private final Map<String, ExistenceFilter> existenceFilters = new ConcurrentHashMap<>();
+
+    /**
+     * 一级缓存（进程内），key为keyPrefix + id，值为解码后的缓存数据；二级缓存为redis
+     */
+    private Cache<String, CacheEntry> localCache;
+
+    /**
+     * 热点key的本地副本，有效期很短，不依赖一级缓存是否开启
+     */
+    private Cache<String, CacheEntry> hotCache;
+
+    /**
+     * 最近读写过的数据的本地副本，只在redis不可用时使用，可以是过期的旧数据
+     */
+    private Cache<String, CacheEntry> staleCache;
+
+    /**
+     * redis不可用时同时查询数据库的请求数上限
+     */
+    private Semaphore degradeDbPermits;
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder localMisses = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder redisMisses = new LongAdder();
+    private final LongAdder filterRejects = new LongAdder();
+    private final LongAdder earlyRefreshes = new LongAdder();
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder degradedQueries = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder degradedRejects = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        if (localCacheEnabled) {
+            localCache = CacheUtil.newLRUCache(localCacheMaxSize, TimeUnit.SECONDS.toMillis(localCacheTtlSeconds));
+        }
+        hotCache = CacheUtil.newLRUCache(hotCacheMaxSize, hotCacheTtlMillis);
+        staleCache = CacheUtil.newLRUCache(staleCacheMaxSize, TimeUnit.SECONDS.toMillis(staleCacheTtlSeconds));
+        degradeDbPermits = new Semaphore(degradeDbConcurrency);
+        // 其他节点删除缓存时，同步清除本地缓存
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                        removeLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
     public void set(String key, Object value, Long time, TimeUnit timeUnit) {
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, timeUnit);
+        setWithTtl(key, value, timeUnit.toMillis(time), 0);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit timeUnit) {
-        //设置逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
-        //写入redis
-        redisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setWithLogicalExpire(key, value, timeUnit.toMillis(time), 0);
+    }
+
+    /**
+     * 写入缓存，过期时间加上随机抖动，避免同一批写入的数据同时过期
+     */
+    private void setWithTtl(String key, Object value, long ttlMillis, long computeMillis) {
+        long ttl = jitter(ttlMillis);
+        writeEntry(key, new CacheEntry(value, 0, System.currentTimeMillis() + ttl, computeMillis), ttl);
+    }
+
+    private void setWithLogicalExpire(String key, Object value, long ttlMillis, long computeMillis) {
+        //设置逻辑过期时间，写入redis
+        long expireAt = System.currentTimeMillis() + jitter(ttlMillis);
+        writeEntry(key, new CacheEntry(value, expireAt, 0, computeMillis), 0);
+    }
+
+    /**
+     * 为key前缀注册存在性过滤器，过滤器判断一定不存在的id不再查询缓存和数据库
+     */
+    public void registerExistenceFilter(String keyPrefix, ExistenceFilter filter) {
+        existenceFilters.put(keyPrefix, filter);
+    }
+
+    /**
+     * 删除缓存，并通知所有节点清除本地缓存；先清除本地缓存（包括降级用的旧数据）再删除redis，
+     * redis不可用（熔断）时本地旧数据也已失效，只有redis删除失败的异常抛给调用方重试
+     */
+    public void delete(String key) {
+        invalidateLocal(key);
+        redisCircuitBreaker.execute(() -> redisTemplate.delete(key));
+        // 删除redis期间本节点可能又从redis读回了旧值
+        removeLocal(key);
+    }
+
+    /**
+     * 一条DEL命令批量删除缓存，并通知所有节点清除本地缓存；redis删除失败时抛出异常，由调用方重试
+     */
+    public void deleteBatch(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        for (String key : keys) {
+            invalidateLocal(key);
+        }
+        redisCircuitBreaker.execute(() -> redisTemplate.delete(keys));
+        for (String key : keys) {
+            removeLocal(key);
+        }
+    }
+
+    /**
+     * 清除本节点的本地缓存并广播给其他节点
+     */
+    private void invalidateLocal(String key) {
+        removeLocal(key);
+        try {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        } catch (Exception e) {
+            // 广播失败时其他节点的本地缓存依靠过期时间自愈
+            log.error("广播缓存失效消息失败：{}", key, e);
+        }
     }
 
     public <R, ID> R queryWithPassThrough(Long time, TimeUnit unit, String keyPrefix, ID id, Class<R> type,
                                           Function<ID, R> dbFallback) {
-        // 1从redis查询缓存
-        String json = (String) redisTemplate.opsForValue().get(keyPrefix + id);
-        // 2判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3存在，直接返回
-            return JSONUtil.toBean(json, type);
-        }
-        // 判断命中的是否为空值
-        if (json != null) {
-            // 返回错误信息
+        return queryWithPassThrough(time, unit, keyPrefix, id, type, dbFallback, true);
+    }
+
+    /**
+     * @param cacheNull 数据不存在时是否缓存空值，解决缓存穿透
+     */
+    public <R, ID> R queryWithPassThrough(Long time, TimeUnit unit, String keyPrefix, ID id, Class<R> type,
+                                          Function<ID, R> dbFallback, boolean cacheNull) {
+        String key = keyPrefix + id;
+        // 0过滤器判断id一定不存在，直接返回
+        if (!mightExist(keyPrefix, id)) {
             return null;
         }
-        // 4不存在，根据ID查询数据库
-        R r = dbFallback.apply(id);
-        // 5不存在，返回错误
-        if (r == null) {
-            // 将空值写入redis
-            redisTemplate.opsForValue().set(keyPrefix + id, "", 2, TimeUnit.MINUTES);
-            return null;
+        try {
+            // 1依次从本地缓存和redis查询缓存
+            CacheEntry entry = getEntry(key, type, false);
+            // 2判断是否存在
+            if (entry != null) {
+                // 3存在，临近过期时按概率在后台提前刷新
+                if (entry.getData() != null && shouldRefreshEarly(entry.getExpireAt(), entry.getComputeMillis())) {
+                    refreshAsync(key, () -> loadAndCache(key, id, dbFallback, time, unit, cacheNull));
+                }
+                // 直接返回，命中空值时返回null
+                return type.cast(entry.getData());
+            }
+            // 4不存在，根据ID查询数据库，同一个key并发未命中时只有一个线程查询
+            return singleFlight(key, type, () -> loadAndCache(key, id, dbFallback, time, unit, cacheNull));
+        } catch (CacheUnavailableException e) {
+            // redis不可用，降级为本地旧数据 + 限流查询数据库
+            return queryDegraded(key, id, type, dbFallback);
         }
-        // 6存在，将商铺数据写入Redis
-        this.set(keyPrefix + id, r, time, unit);
-        // 7返回
-        return r;
+    }
+
+    /**
+     * 批量查询，解决缓存穿透：一次MGET查询redis，未命中的id一次查询数据库，再用pipeline回写redis
+     *
+     * @param dbFallback 根据一批id查询数据库，返回存在的数据，顺序不限
+     * @param idGetter   从数据中取出id，用于和输入的id对应
+     * @return 与ids一一对应的结果，不存在的id对应null
+     */
+    public <R, ID> List<R> queryBatchWithPassThrough(Long time, TimeUnit unit, String keyPrefix, List<ID> ids,
+                                                     Class<R> type, Function<List<ID>, List<R>> dbFallback,
+                                                     Function<R, ID> idGetter) {
+        // id -> 结果，value为null表示不存在
+        Map<ID, R> resolved = new HashMap<>(ids.size() * 2);
+        List<ID> pending = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            // 0过滤器判断id一定不存在
+            if (!mightExist(keyPrefix, id)) {
+                resolved.put(id, null);
+                continue;
+            }
+            // 查询本地缓存
+            CacheEntry entry = getLocal(keyPrefix + id);
+            if (entry != null) {
+                resolved.put(id, type.cast(entry.getData()));
+            } else {
+                pending.add(id);
+            }
+        }
+        if (!pending.isEmpty()) {
+            // 1一次MGET从redis查询缓存
+            byte[][] keys = new byte[pending.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = (keyPrefix + pending.get(i)).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> values;
+            try {
+                values = redisCircuitBreaker.execute(() -> (List<byte[]>) redisTemplate.execute(
+                        (RedisCallback<List<byte[]>>) connection -> connection.stringCommands().mGet(keys)));
+            } catch (CacheUnavailableException e) {
+                // redis不可用，降级为本地旧数据 + 限流查询数据库
+                values = null;
+                pending = queryBatchDegraded(keyPrefix, pending, type, resolved);
+            }
+            List<ID> misses = new ArrayList<>();
+            for (int i = 0; i < pending.size(); i++) {
+                ID id = pending.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                CacheEntry entry = bytes == null ? null : cacheCodec.decode(bytes, type, false);
+                if (entry == null) {
+                    if (values != null) {
+                        redisMisses.increment();
+                    }
+                    misses.add(id);
+                    continue;
+                }
+                // 2命中，空值标记同样视为命中
+                redisHits.increment();
+                putLocal(keyPrefix + id, entry);
+                resolved.put(id, type.cast(entry.getData()));
+            }
+            if (!misses.isEmpty()) {
+                // 3未命中的id一次查询数据库
+                long start = System.currentTimeMillis();
+                Map<ID, R> loaded = new HashMap<>(misses.size() * 2);
+                List<ID> missIds = misses;
+                List<R> rows = values == null ? withDbPermit(() -> dbFallback.apply(missIds)) : dbFallback.apply(misses);
+                for (R r : rows) {
+                    loaded.put(idGetter.apply(r), r);
+                }
+                long computeMillis = System.currentTimeMillis() - start;
+                // 4 pipeline回写redis，不存在的id写入空值
+                Map<String, Object> writeBack = new LinkedHashMap<>(misses.size() * 2);
+                for (ID id : misses) {
+                    R r = loaded.get(id);
+                    resolved.put(id, r);
+                    writeBack.put(keyPrefix + id, r);
+                }
+                writeEntries(writeBack, unit.toMillis(time), computeMillis);
+            }
+        }
+        // 5按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(resolved.get(id));
+        }
+        return result;
     }
 
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
                                             TimeUnit unit) {
-        // 1从redis查询缓存
-        String json = (String) redisTemplate.opsForValue().get(keyPrefix + id);
-        // 2判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3不存在，直接返回
-            return null;
-        }
+        return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit, true);
+    }
 
-        // 4命中，需要把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data, type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 5判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1未过期，直接返回店铺信息
-            return r;
+    public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
+                                            TimeUnit unit, boolean cacheNull) {
+        String key = keyPrefix + id;
+        // 0过滤器判断id一定不存在，直接返回
+        if (!mightExist(keyPrefix, id)) {
+            return null;
         }
-        // 5.2已经过期，需要进行缓存重建
-        // 6缓存重建
-        // 6.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2判断是否获取成功
-        if (isLock) {
-            // 6.3 成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+        try {
+            // 1依次从本地缓存和redis查询缓存
+            CacheEntry entry = getEntry(key, type, true);
+            // 2判断是否存在
+            if (entry == null) {
+                // 3不存在，说明没有预热过，查询数据库并写入
+                return singleFlight(key, type, () -> loadWithLogicalExpire(key, id, dbFallback, time, unit, cacheNull));
+            }
+            // 4命中，逻辑过期时间在定长头部中，不需要再解析一遍
+            R r = type.cast(entry.getData());
+            if (r == null) {
+                // 命中空值
+                return null;
+            }
+            // 5判断是否过期，临近过期时按概率提前重建
+            if (entry.getLogicalExpireAt() > System.currentTimeMillis()
+                    && !shouldRefreshEarly(entry.getLogicalExpireAt(), entry.getComputeMillis())) {
+                // 5.1未过期，直接返回店铺信息
+                return r;
+            }
+            // 5.2已经过期，需要进行缓存重建
+            // 6缓存重建，本节点内同一个key只提交一次，队列已满时放弃本次重建
+            cacheRebuildExecutor.submit(key, () -> {
+                // 6.1获取互斥锁，其他节点正在重建时跳过
+                String lockKey = lockKey(key);
+                if (!tryLock(lockKey)) {
+                    return;
+                }
                 try {
                     //查询数据库
+                    long start = System.currentTimeMillis();
                     R r1 = dbFallback.apply(id);
                     // 重建缓存
-                    this.setWithLogicalExpire(keyPrefix + id, r1, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+                    this.setWithLogicalExpire(key, r1, unit.toMillis(time), System.currentTimeMillis() - start);
                 } finally {
                     // 释放锁
                     unlock(lockKey);
                 }
-
             });
+            // 6.2返回过期商铺信息
+            return r;
+        } catch (CacheUnavailableException e) {
+            // redis不可用，降级为本地旧数据 + 限流查询数据库
+            return queryDegraded(key, id, type, dbFallback);
         }
-        // 6.4失败，返回过期商铺信息
-        return r;
     }
 
 
     public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
                                     TimeUnit unit) {
-        // 1从redis查询缓存
-        String json = (String) redisTemplate.opsForValue().get(keyPrefix + id);
-        // 2判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3存在，直接返回
-            R r = JSONUtil.toBean(json, type);
-            return r;
-        }
-        // 判断命中的是否为空值
-        if (json != null) {
-            // 返回错误信息
+        return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit, true);
+    }
+
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
+                                    TimeUnit unit, boolean cacheNull) {
+        String key = keyPrefix + id;
+        // 0过滤器判断id一定不存在，直接返回
+        if (!mightExist(keyPrefix, id)) {
             return null;
         }
-        // 4实现缓存重建
-        // 4.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2判断是否获取成功
-            if (!isLock) {
-                // 4.3失败，则休眠并且重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+            // 1依次从本地缓存和redis查询缓存
+            CacheEntry entry = getEntry(key, type, false);
+            // 2判断是否存在
+            if (entry != null) {
+                // 3存在，临近过期时按概率在后台提前刷新
+                if (entry.getData() != null && shouldRefreshEarly(entry.getExpireAt(), entry.getComputeMillis())) {
+                    refreshAsync(key, () -> {
+                        // 其他节点正在刷新时跳过
+                        String lockKey = lockKey(key);
+                        if (tryLock(lockKey)) {
+                            try {
+                                loadAndCache(key, id, dbFallback, time, unit, cacheNull);
+                            } finally {
+                                unlock(lockKey);
+                            }
+                        }
+                    });
+                }
+                // 直接返回，命中空值时返回null
+                return type.cast(entry.getData());
             }
+            // 4实现缓存重建，本节点内同一个key只有一个线程参与互斥锁的竞争
+            return singleFlight(key, type, () -> loadWithMutex(key, id, type, dbFallback, time, unit, cacheNull));
+        } catch (CacheUnavailableException e) {
+            // redis不可用，降级为本地旧数据 + 限流查询数据库
+            return queryDegraded(key, id, type, dbFallback);
+        }
+    }
 
-            // 4.4成功，根据ID查询数据库
-            r = dbFallback.apply(id);
-            // 5不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                redisTemplate.opsForValue().set(keyPrefix + id, "", 2, TimeUnit.MINUTES);
-                return null;
+    /**
+     * redis不可用时的降级查询：优先返回本地保留的旧数据；没有时限制并发查询数据库，结果只保存在本地
+     */
+    private <R, ID> R queryDegraded(String key, ID id, Class<R> type, Function<ID, R> dbFallback) {
+        degradedQueries.increment();
+        CacheEntry entry = staleCache.get(key, false);
+        if (entry != null) {
+            staleHits.increment();
+            return type.cast(entry.getData());
+        }
+        // 与正常加载区分，避免等待一个会因redis不可用而失败的加载
+        return singleFlight(DEGRADED_FLIGHT_PREFIX + key, type, () -> {
+            R r = withDbPermit(() -> dbFallback.apply(id));
+            staleCache.put(key, new CacheEntry(r, 0));
+            return r;
+        });
+    }
+
+    /**
+     * 批量查询的降级：命中本地旧数据的id写入resolved
+     *
+     * @return 仍需查询数据库的id
+     */
+    private <R, ID> List<ID> queryBatchDegraded(String keyPrefix, List<ID> ids, Class<R> type, Map<ID, R> resolved) {
+        List<ID> misses = new ArrayList<>();
+        for (ID id : ids) {
+            degradedQueries.increment();
+            CacheEntry entry = staleCache.get(keyPrefix + id, false);
+            if (entry == null) {
+                misses.add(id);
+            } else {
+                staleHits.increment();
+                resolved.put(id, type.cast(entry.getData()));
             }
-            // 6存在，将商铺数据写入Redis
-            redisTemplate.opsForValue().set(keyPrefix + id, JSONUtil.toJsonStr(r), 30, TimeUnit.MINUTES);
+        }
+        return misses;
+    }
+
+    /**
+     * 获取数据库查询许可后执行，等待超时则拒绝，避免redis故障时所有请求同时压到数据库
+     */
+    private <T> T withDbPermit(Supplier<T> loader) {
+        boolean acquired;
+        try {
+            acquired = degradeDbPermits.tryAcquire(degradeDbWaitMillis, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
+        }
+        if (!acquired) {
+            degradedRejects.increment();
+            throw new RuntimeException("缓存服务不可用，请稍后重试");
+        }
+        try {
+            return loader.get();
+        } finally {
+            degradeDbPermits.release();
+        }
+    }
+
+    /**
+     * 单飞：同一个key的并发加载共享同一个future，只有第一个线程执行loader，其余线程等待其结果
+     */
+    private <R> R singleFlight(String key, Class<R> type, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            // 其他线程正在加载，有界等待
+            try {
+                return type.cast(inFlight.get(loadWaitMillis, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CacheUnavailableException) {
+                    throw (CacheUnavailableException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new RuntimeException("等待缓存加载超时：" + key, e);
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+    /**
+     * 利用redis互斥锁在节点之间协调缓存重建：
+     * 获取锁失败时轮询缓存，其他节点重建完成即返回；等待超过上限仍未完成，则直接查询数据库
+     */
+    private <R, ID> R loadWithMutex(String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time,
+                                    TimeUnit unit, boolean cacheNull) {
+        // 4.1获取互斥锁
+        String lockKey = lockKey(key);
+        long deadline = System.currentTimeMillis() + lockWaitMillis;
+        while (!tryLock(lockKey)) {
+            // 4.2获取失败，等待后检查其他节点是否已重建缓存
+            if (System.currentTimeMillis() >= deadline) {
+                // 4.3等待超时，不再等锁，直接查询数据库
+                log.warn("等待缓存重建锁超时，直接查询数据库：{}", key);
+                return loadAndCache(key, id, dbFallback, time, unit, cacheNull);
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            CacheEntry entry = readRedis(key, type, false);
+            if (entry != null) {
+                return type.cast(entry.getData());
+            }
+        }
+        try {
+            // 4.4成功，再次检查缓存，其他节点可能刚刚重建完成
+            CacheEntry entry = readRedis(key, type, false);
+            if (entry != null) {
+                return type.cast(entry.getData());
+            }
+            return loadAndCache(key, id, dbFallback, time, unit, cacheNull);
         } finally {
             // 7释放互斥锁
             unlock(lockKey);
         }
+    }
 
-        // 8返回
+    /**
+     * 查询数据库并写入缓存，不存在时按cacheNull决定是否缓存空值
+     */
+    private <R, ID> R loadAndCache(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+                                   boolean cacheNull) {
+        long start = System.currentTimeMillis();
+        R r = dbFallback.apply(id);
+        long computeMillis = System.currentTimeMillis() - start;
+        // 5不存在，返回错误
+        if (r == null) {
+            if (!cacheNull) {
+                return null;
+            }
+            // 将空值写入redis
+            setWithTtl(key, null, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), computeMillis);
+            return null;
+        }
+        // 6存在，将数据写入Redis，记录查询耗时用于提前刷新
+        setWithTtl(key, r, unit.toMillis(time), computeMillis);
+        return r;
+    }
 
+    /**
+     * 查询数据库并写入逻辑过期的缓存，不存在时按cacheNull决定是否缓存空值，空值使用真实的过期时间
+     */
+    private <R, ID> R loadWithLogicalExpire(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+                                            boolean cacheNull) {
+        long start = System.currentTimeMillis();
+        R r = dbFallback.apply(id);
+        long computeMillis = System.currentTimeMillis() - start;
+        if (r == null) {
+            if (!cacheNull) {
+                return null;
+            }
+            setWithTtl(key, null, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), computeMillis);
+            return null;
+        }
+        setWithLogicalExpire(key, r, unit.toMillis(time), computeMillis);
         return r;
     }
 
+    /**
+     * 用pipeline批量写入缓存，用于预热
+     */
+    public void setBatch(Map<String, Object> values, Long time, TimeUnit unit) {
+        writeEntries(values, unit.toMillis(time), 0);
+    }
+
+    /**
+     * 用pipeline批量写入逻辑过期的缓存，用于预热
+     */
+    public void setBatchWithLogicalExpire(Map<String, Object> values, Long time, TimeUnit unit) {
+        long now = System.currentTimeMillis();
+        Map<String, CacheEntry> entries = new LinkedHashMap<>(values.size() * 2);
+        values.forEach((key, value) ->
+                entries.put(key, new CacheEntry(value, now + jitter(unit.toMillis(time)), 0, 0)));
+        pipelineWrite(entries, now);
+    }
+
+    /**
+     * 缓存命中统计：本地缓存（L1）和redis（L2）的命中次数与命中率
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("localEnabled", localCacheEnabled);
+        stats.put("localSize", localCache == null ? 0 : localCache.size());
+        stats.put("localHits", localHits.sum());
+        stats.put("localMisses", localMisses.sum());
+        stats.put("localHitRatio", ratio(localHits.sum(), localMisses.sum()));
+        stats.put("redisHits", redisHits.sum());
+        stats.put("redisMisses", redisMisses.sum());
+        stats.put("redisHitRatio", ratio(redisHits.sum(), redisMisses.sum()));
+        stats.put("filterRejects", filterRejects.sum());
+        stats.put("earlyRefreshes", earlyRefreshes.sum());
+        stats.put("hotKeys", hotKeyDetector.hotKeyCount());
+        stats.put("hotHits", hotHits.sum());
+        stats.put("rebuild", cacheRebuildExecutor.getStats());
+        stats.put("degradedQueries", degradedQueries.sum());
+        stats.put("staleHits", staleHits.sum());
+        stats.put("degradedRejects", degradedRejects.sum());
+        stats.put("circuitBreaker", redisCircuitBreaker.getStats());
+        return stats;
+    }
+
+    private static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private boolean mightExist(String keyPrefix, Object id) {
+        ExistenceFilter filter = existenceFilters.get(keyPrefix);
+        if (filter == null || filter.mightContain(id)) {
+            return true;
+        }
+        filterRejects.increment();
+        return false;
+    }
+
+    /**
+     * 依次查询本地缓存和redis，都未命中时返回null
+     */
+    private CacheEntry getEntry(String key, Class<?> type, boolean logicalExpire) {
+        CacheEntry entry = getLocal(key);
+        if (entry != null) {
+            return entry;
+        }
+        entry = readRedis(key, type, logicalExpire);
+        if (entry == null) {
+            redisMisses.increment();
+            return null;
+        }
+        redisHits.increment();
+        putLocal(key, entry);
+        return entry;
+    }
+
+    private CacheEntry readRedis(String key, Class<?> type, boolean logicalExpire) {
+        byte[] bytes = redisCircuitBreaker.execute(() -> (byte[]) redisTemplate.execute((RedisCallback<byte[]>)
+                connection -> connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8))));
+        return bytes == null ? null : cacheCodec.decode(bytes, type, logicalExpire);
+    }
+
+    /**
+     * 写入redis和本地缓存，ttlMillis小于等于0表示不设置过期时间
+     */
+    private void writeEntry(String key, CacheEntry entry, long ttlMillis) {
+        byte[] value = cacheCodec.encode(entry);
+        try {
+            redisCircuitBreaker.execute(() -> redisTemplate.execute((RedisCallback<Object>) connection ->
+                    connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), value,
+                            ttlMillis > 0 ? Expiration.milliseconds(ttlMillis) : Expiration.persistent(),
+                            RedisStringCommands.SetOption.upsert())));
+        } catch (CacheUnavailableException e) {
+            // redis不可用时只写本地，失败已由熔断器统计
+        }
+        putLocal(key, entry);
+    }
+
+    /**
+     * 用pipeline批量写入redis和本地缓存，每个key的过期时间单独抖动，空值标记使用空值的过期时间
+     */
+    private void writeEntries(Map<String, Object> values, long ttlMillis, long computeMillis) {
+        long now = System.currentTimeMillis();
+        long nullTtlMillis = TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL);
+        Map<String, CacheEntry> entries = new LinkedHashMap<>(values.size() * 2);
+        values.forEach((key, value) -> {
+            long ttl = jitter(value == null ? nullTtlMillis : ttlMillis);
+            entries.put(key, new CacheEntry(value, 0, now + ttl, computeMillis));
+        });
+        pipelineWrite(entries, now);
+    }
+
+    /**
+     * 用pipeline写入redis和本地缓存，expireAt大于0的数据设置过期时间，否则永久保存
+     */
+    private void pipelineWrite(Map<String, CacheEntry> entries, long now) {
+        try {
+            redisCircuitBreaker.execute(() -> redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                entries.forEach((key, entry) -> connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8),
+                        cacheCodec.encode(entry),
+                        entry.getExpireAt() > 0 ? Expiration.milliseconds(entry.getExpireAt() - now) : Expiration.persistent(),
+                        RedisStringCommands.SetOption.upsert()));
+                return null;
+            }));
+        } catch (CacheUnavailableException e) {
+            // redis不可用时只写本地，失败已由熔断器统计
+        }
+        entries.forEach(this::putLocal);
+    }
+
+    /**
+     * 过期时间加上[0, ttl * ttlJitterRatio)的随机抖动
+     */
+    private long jitter(long ttlMillis) {
+        if (ttlMillis <= 0 || ttlJitterRatio <= 0) {
+            return ttlMillis;
+        }
+        return ttlMillis + (long) (ttlMillis * ttlJitterRatio * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * XFetch：now - computeMillis * beta * ln(random) >= expireAt 时提前刷新，
+     * 越接近过期、查询数据库越慢，提前刷新的概率越大
+     */
+    private boolean shouldRefreshEarly(long expireAt, long computeMillis) {
+        if (!earlyRefreshEnabled || expireAt <= 0) {
+            return false;
+        }
+        double gap = Math.max(computeMillis, 1) * earlyRefreshBeta * -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= expireAt;
+    }
+
+    /**
+     * 在后台刷新缓存，同一个key同时只有一个刷新任务
+     */
+    private void refreshAsync(String key, Runnable refresher) {
+        if (cacheRebuildExecutor.submit(key, refresher)) {
+            earlyRefreshes.increment();
+        }
+    }
+
+    /**
+     * 查询本地缓存：热点key先查热点副本，再查一级缓存
+     */
+    private CacheEntry getLocal(String key) {
+        hotKeyDetector.record(key);
+        if (hotKeyDetector.isHot(key)) {
+            CacheEntry entry = hotCache.get(key, false);
+            if (entry != null) {
+                hotHits.increment();
+                return entry;
+            }
+        }
+        if (localCache == null) {
+            return null;
+        }
+        CacheEntry entry = localCache.get(key, false);
+        if (entry == null) {
+            localMisses.increment();
+        } else {
+            localHits.increment();
+        }
+        return entry;
+    }
+
+    private void putLocal(String key, CacheEntry entry) {
+        staleCache.put(key, entry);
+        if (localCache != null) {
+            localCache.put(key, entry);
+        }
+        if (hotKeyDetector.isHot(key)) {
+            hotCache.put(key, entry);
+        }
+    }
+
+    private void removeLocal(String key) {
+        staleCache.remove(key);
+        if (localCache != null) {
+            localCache.remove(key);
+        }
+        hotCache.remove(key);
+    }
+
+    /**
+     * 缓存重建锁，店铺沿用原来的lock:shop:{id}，其他数据为lock:cache:{key}
+     */
+    private static String lockKey(String key) {
+        if (key.startsWith(CACHE_SHOP_KEY)) {
+            return LOCK_SHOP_KEY + key.substring(CACHE_SHOP_KEY.length());
+        }
+        return LOCK_CACHE_KEY + key;
+    }
 
     private boolean tryLock(String key) {
-        Boolean flag = redisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
+        Boolean flag = redisCircuitBreaker.execute(() ->
+                redisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS));
         return BooleanUtil.isTrue(flag);
     }
 
     private void unlock(String key) {
-        redisTemplate.delete(key);
+        try {
+            redisCircuitBreaker.execute(() -> redisTemplate.delete(key));
+        } catch (CacheUnavailableException e) {
+            // 释放失败时锁依靠过期时间释放
+        }
     }
 }
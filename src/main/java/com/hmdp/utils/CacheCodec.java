@@ -0,0 +1,15 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码，CacheClient写入和读取redis时使用
+ */
+public interface CacheCodec {
+
+    byte[] encode(CacheEntry entry);
+
+    /**
+     * @param logicalExpire 是否按逻辑过期的格式写入，旧格式需要据此解析
+     * @return 无法识别的数据返回null，按未命中处理
+     */
+    CacheEntry decode(byte[] bytes, Class<?> type, boolean logicalExpire);
+}
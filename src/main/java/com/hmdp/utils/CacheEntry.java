@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 缓存中的一条数据
+ */
+@Getter
+@AllArgsConstructor
+public class CacheEntry {
+    /**
+     * 缓存的对象，为null表示空值标记
+     */
+    private final Object data;
+    /**
+     * 逻辑过期时间（毫秒），0表示没有逻辑过期
+     */
+    private final long logicalExpireAt;
+    /**
+     * redis中的过期时间（毫秒），0表示未知，用于提前刷新
+     */
+    private final long expireAt;
+    /**
+     * 上次查询数据库花费的时间（毫秒），用于提前刷新
+     */
+    private final long computeMillis;
+
+    public CacheEntry(Object data, long logicalExpireAt) {
+        this(data, logicalExpireAt, 0, 0);
+    }
+}
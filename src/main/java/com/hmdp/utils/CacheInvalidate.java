@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后删除缓存keyPrefix + key：在方法的事务中写入缓存失效消息，事务提交后由CacheInvalidator异步删除，
+ * 删除失败时重试
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(CacheInvalidate.List.class)
+public @interface CacheInvalidate {
+
+    String keyPrefix();
+
+    /**
+     * SpEL表达式，规则同{@link CacheQuery#key()}，结果为null时不删除
+     */
+    String key() default "";
+
+    @Documented
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface List {
+        CacheInvalidate[] value();
+    }
+}
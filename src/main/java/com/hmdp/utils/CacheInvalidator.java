@@ -0,0 +1,248 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.service.ICacheOutboxService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 可靠的缓存失效：删除缓存的请求先写入tb_cache_outbox，与业务数据在同一个事务中提交，
+ * 再由后台线程批量删除缓存，失败时按指数退避重试，直到删除成功。
+ * <p>
+ * 事务提交后立即触发一次删除，定时任务兜底处理触发失败和需要重试的消息；
+ * 开启延迟双删时，第一次删除成功后消息进入待双删阶段，延迟一段时间再删除一次，
+ * 清除并发读在提交前读到旧数据、提交后才写回的缓存。
+ * 多个节点可能处理同一条消息，删除缓存是幂等的，不需要加锁。
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.invalidation.batch-size:100}")
+    private int batchSize;
+
+    @Value("${hmdp.cache.invalidation.retry-base-millis:1000}")
+    private long retryBaseMillis;
+
+    @Value("${hmdp.cache.invalidation.retry-max-millis:60000}")
+    private long retryMaxMillis;
+
+    @Value("${hmdp.cache.invalidation.double-delete.enabled:false}")
+    private boolean doubleDeleteEnabled;
+
+    @Value("${hmdp.cache.invalidation.double-delete.delay-millis:1000}")
+    private long doubleDeleteDelayMillis;
+
+    private final ExecutorService drainExecutor = Executors.newSingleThreadExecutor();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * 正在处理时又被触发，处理完当前批次后再查询一次
+     */
+    private volatile boolean drainRequested;
+
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder doubleDeleted = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong lastLagMillis = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    /**
+     * 写入缓存失效消息。在事务中调用时随事务提交，提交后触发删除；不在事务中时立即写入并触发删除
+     */
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<CacheOutbox> messages = new ArrayList<>(keys.size());
+        for (String key : new LinkedHashSet<>(keys)) {
+            messages.add(new CacheOutbox()
+                    .setCacheKey(key)
+                    .setStage(CacheOutbox.STAGE_DELETE)
+                    .setRetryCount(0)
+                    .setNextRetryTime(now)
+                    .setCreateTime(now));
+        }
+        cacheOutboxService.saveBatch(messages);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    triggerDrain();
+                }
+            });
+        } else {
+            triggerDrain();
+        }
+    }
+
+    /**
+     * 异步处理到期的消息，不阻塞提交事务的线程
+     */
+    public void triggerDrain() {
+        try {
+            drainExecutor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // 已经关闭，剩余的消息由其他节点或下次启动后处理
+            log.warn("缓存失效线程已关闭，消息留待定时任务处理");
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.cache.invalidation.poll-interval-millis:1000}")
+    public void scheduledDrain() {
+        drain();
+    }
+
+    @PreDestroy
+    private void destroy() {
+        drainExecutor.shutdownNow();
+    }
+
+    private void drain() {
+        drainRequested = true;
+        if (!draining.compareAndSet(false, true)) {
+            // 其他线程正在处理，由它再查询一次
+            return;
+        }
+        try {
+            while (drainRequested) {
+                drainRequested = false;
+                List<CacheOutbox> batch;
+                do {
+                    batch = cacheOutboxService.query()
+                            .le("next_retry_time", LocalDateTime.now())
+                            .orderByAsc("id")
+                            .last("limit " + batchSize)
+                            .list();
+                    process(batch);
+                } while (batch.size() == batchSize);
+            }
+        } catch (Exception e) {
+            log.error("处理缓存失效消息失败", e);
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    private void process(List<CacheOutbox> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        for (CacheOutbox message : batch) {
+            keys.add(message.getCacheKey());
+        }
+        try {
+            cacheClient.deleteBatch(keys);
+        } catch (Exception e) {
+            // redis不可用，整批退避重试
+            failures.add(batch.size());
+            log.error("删除缓存失败，{}条消息稍后重试", batch.size(), e);
+            for (CacheOutbox message : batch) {
+                int retryCount = message.getRetryCount() + 1;
+                cacheOutboxService.update()
+                        .set("retry_count", retryCount)
+                        .set("next_retry_time", LocalDateTime.now().plus(Duration.ofMillis(backoff(retryCount))))
+                        .eq("id", message.getId())
+                        .update();
+            }
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Long> finished = new ArrayList<>(batch.size());
+        List<Long> pendingDoubleDelete = new ArrayList<>();
+        for (CacheOutbox message : batch) {
+            if (message.getStage() == CacheOutbox.STAGE_DELETE) {
+                invalidated.increment();
+                recordLag(now - toEpochMilli(message.getCreateTime()));
+                if (doubleDeleteEnabled) {
+                    pendingDoubleDelete.add(message.getId());
+                    continue;
+                }
+            } else {
+                doubleDeleted.increment();
+            }
+            finished.add(message.getId());
+        }
+        if (!finished.isEmpty()) {
+            cacheOutboxService.removeByIds(finished);
+        }
+        if (!pendingDoubleDelete.isEmpty()) {
+            cacheOutboxService.update()
+                    .set("stage", CacheOutbox.STAGE_DOUBLE_DELETE)
+                    .set("retry_count", 0)
+                    .set("next_retry_time", LocalDateTime.now().plus(Duration.ofMillis(doubleDeleteDelayMillis)))
+                    .in("id", pendingDoubleDelete)
+                    .update();
+        }
+    }
+
+    /**
+     * 指数退避：retryBaseMillis * 2^(retryCount - 1)，不超过retryMaxMillis
+     */
+    private long backoff(int retryCount) {
+        int shift = Math.min(retryCount - 1, 30);
+        return Math.min(retryBaseMillis << shift, retryMaxMillis);
+    }
+
+    private void recordLag(long lagMillis) {
+        lastLagMillis.set(lagMillis);
+        maxLagMillis.accumulateAndGet(lagMillis, Math::max);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 失效统计：从写入消息到第一次删除成功的延迟，以及积压的消息数量和最早一条的等待时间
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("invalidated", invalidated.sum());
+        stats.put("doubleDeleted", doubleDeleted.sum());
+        stats.put("failures", failures.sum());
+        stats.put("lastLagMillis", lastLagMillis.get());
+        stats.put("maxLagMillis", maxLagMillis.get());
+        stats.put("pending", cacheOutboxService.count());
+        CacheOutbox oldest = cacheOutboxService.query()
+                .eq("stage", CacheOutbox.STAGE_DELETE)
+                .orderByAsc("id")
+                .last("limit 1")
+                .one();
+        stats.put("oldestPendingMillis",
+                oldest == null ? 0 : System.currentTimeMillis() - toEpochMilli(oldest.getCreateTime()));
+        return stats;
+    }
+}
@@ -0,0 +1,43 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 方法返回值走CacheClient缓存，缓存key为keyPrefix + key，方法本身作为查询数据库的逻辑。
+ * <p>
+ * 返回List时按elementType的数组写入缓存，避免反序列化后丢失元素类型；
+ * 同类内部调用不经过代理，不会走缓存。
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheQuery {
+
+    String keyPrefix();
+
+    /**
+     * SpEL表达式，可以引用方法参数（#参数名、#p0）；为空时取第一个参数，没有参数时只使用keyPrefix
+     */
+    String key() default "";
+
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * 数据不存在时是否缓存空值
+     */
+    boolean cacheNull() default true;
+
+    /**
+     * 返回List时的元素类型
+     */
+    Class<?> elementType() default Object.class;
+}
@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存未命中或过期时的重建策略，对应CacheClient的三种查询方式
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空值解决缓存穿透，未命中时直接查询数据库
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁解决缓存击穿，未命中时只有一个节点查询数据库
+     */
+    MUTEX,
+    /**
+     * 逻辑过期解决缓存击穿，过期后返回旧数据并在后台重建
+     */
+    LOGICAL_EXPIRE
+}
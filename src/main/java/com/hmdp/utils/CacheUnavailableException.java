@@ -0,0 +1,15 @@
+package com.hmdp.utils;
+
+/**
+ * redis调用失败，或熔断器打开时拒绝调用，CacheClient捕获后降级
+ */
+public class CacheUnavailableException extends RuntimeException {
+
+    public CacheUnavailableException(String message) {
+        super(message);
+    }
+
+    public CacheUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
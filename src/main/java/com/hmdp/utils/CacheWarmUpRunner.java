@@ -0,0 +1,173 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_WARM_UP_DONE_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_WARM_UP_KEY;
+
+/**
+ * 缓存预热：启动时和定时把商铺、商铺类型写入缓存，并重建商铺的GEO集合和排行榜，同一时间只有一个节点预热；
+ * 进程内索引每个节点都需要，在加锁之前各自重建，不受预热开关影响。
+ * <p>
+ * 启动预热在ApplicationRunner中同步执行，Spring Boot在所有runner执行完之后才把应用标记为可以接收流量（readiness），
+ * 没有接入探针的部署可以通过 /cache/ready 判断。只有本节点预热成功，或者确认持有锁的节点写入了完成标记，
+ * 才视为就绪；预热失败时释放锁，未就绪期间定时重试。
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.warmup.parallelism:4}")
+    private int parallelism;
+
+    @Value("${hmdp.warmup.page-size:500}")
+    private int pageSize;
+
+    @Value("${hmdp.warmup.interval-millis:1800000}")
+    private long intervalMillis;
+
+    @Value("${hmdp.warmup.wait-millis:60000}")
+    private long waitMillis;
+
+    private volatile boolean ready;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            // 其他节点正在预热时，等待其完成
+            ready = warmUp(waitMillis);
+        } catch (Exception e) {
+            // 预热失败不阻止启动，未预热的数据在第一次访问时加载
+            log.error("启动预热缓存失败", e);
+        }
+        if (!ready) {
+            log.warn("缓存尚未预热完成，稍后重试");
+        }
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.warmup.interval-millis:1800000}",
+            fixedDelayString = "${hmdp.warmup.interval-millis:1800000}")
+    public void scheduledWarmUp() {
+        try {
+            if (warmUp(0)) {
+                ready = true;
+            }
+        } catch (Exception e) {
+            log.error("定时预热缓存失败", e);
+        }
+    }
+
+    /**
+     * 未就绪时重试预热，或者确认其他节点已经预热完成；定时任务线程共用，不等待其他节点
+     */
+    @Scheduled(initialDelayString = "${hmdp.warmup.retry-millis:10000}",
+            fixedDelayString = "${hmdp.warmup.retry-millis:10000}")
+    public void retryWarmUp() {
+        if (ready) {
+            return;
+        }
+        try {
+            if (warmUp(0)) {
+                ready = true;
+                log.info("缓存预热已完成，节点就绪");
+            }
+        } catch (Exception e) {
+            log.error("重试预热缓存失败", e);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @param waitMillis 其他节点持有锁时等待其完成标记的时间
+     * @return 缓存是否已经预热完成（本节点预热成功，或其他节点写入了完成标记）
+     */
+    private boolean warmUp(long waitMillis) {
+        rebuildLocalIndexes();
+        if (!enabled) {
+            return true;
+        }
+        String token = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(LOCK_WARM_UP_KEY, token,
+                intervalMillis / 2, TimeUnit.MILLISECONDS);
+        if (!BooleanUtil.isTrue(locked)) {
+            // 其他节点正在预热或刚刚预热过，以其写入的完成标记为准
+            return awaitWarmUpDone(waitMillis);
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int types = shopTypeService.warmUpCache();
+            int shops = shopService.warmUpCache(parallelism, pageSize);
+            int geoShops = shopService.loadShopGeo();
+            int rankShops = shopService.loadShopRanks();
+            // 完成标记保留两个预热周期，定时预热时续上
+            stringRedisTemplate.opsForValue().set(CACHE_WARM_UP_DONE_KEY, String.valueOf(System.currentTimeMillis()),
+                    intervalMillis * 2, TimeUnit.MILLISECONDS);
+            log.info("缓存预热完成，商铺类型{}个，商铺{}个，商铺坐标{}个，排行榜商铺{}个，耗时{}ms", types, shops, geoShops,
+                    rankShops, System.currentTimeMillis() - start);
+            return true;
+        } catch (RuntimeException e) {
+            // 预热失败，释放锁，其他节点或下次重试时重新预热
+            if (token.equals(stringRedisTemplate.opsForValue().get(LOCK_WARM_UP_KEY))) {
+                stringRedisTemplate.delete(LOCK_WARM_UP_KEY);
+            }
+            throw e;
+        }
+    }
+
+    private boolean awaitWarmUpDone(long waitMillis) {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(CACHE_WARM_UP_DONE_KEY))) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rebuildLocalIndexes() {
+        try {
+            long start = System.currentTimeMillis();
+            int shops = shopService.rebuildLocalIndexes();
+            if (shops > 0) {
+                log.info("进程内索引重建完成，商铺{}个，耗时{}ms", shops, System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            // 重建失败时继续使用旧索引，未构建过时查询走redis
+            log.error("重建进程内索引失败", e);
+        }
+    }
+}
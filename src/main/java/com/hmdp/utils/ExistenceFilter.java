@@ -0,0 +1,17 @@
+package com.hmdp.utils;
+
+/**
+ * 存在性过滤器，用于在查询缓存和数据库之前拦截一定不存在的id
+ */
+public interface ExistenceFilter {
+
+    /**
+     * @return false表示id一定不存在；true表示id可能存在
+     */
+    boolean mightContain(Object id);
+
+    /**
+     * 记录新增的id
+     */
+    void put(Object id);
+}
@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+
+/**
+ * 热点key探测：按采样率统计每个key的访问次数，滑动窗口由若干个1秒的桶组成。
+ * <p>
+ * 窗口内估算的访问次数达到阈值的key判定为热点，每秒广播一次本节点的热点key，
+ * 所有节点收到后在一段时间内把它当作热点，由CacheClient复制到本地的短期缓存；
+ * 访问量降到阈值的一半以下后本节点不再广播，热点标记随之过期。
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    private static final long BUCKET_MILLIS = 1000;
+    private static final String SEPARATOR = "\n";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.cache.hot-key.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.hot-key.sample-rate:0.1}")
+    private double sampleRate;
+
+    @Value("${hmdp.cache.hot-key.window-seconds:5}")
+    private int windowSeconds;
+
+    @Value("${hmdp.cache.hot-key.threshold:500}")
+    private long threshold;
+
+    @Value("${hmdp.cache.hot-key.max-tracked-keys:10000}")
+    private int maxTrackedKeys;
+
+    /**
+     * 滑动窗口，每个桶是key -> 采样到的访问次数
+     */
+    private AtomicReferenceArray<Map<String, LongAdder>> buckets;
+
+    private volatile int current;
+
+    /**
+     * 本节点判定的热点key -> 窗口内估算的访问次数
+     */
+    private volatile Map<String, Long> localHotKeys = Collections.emptyMap();
+
+    /**
+     * 所有节点广播的热点key -> 热点标记过期时间
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        buckets = new AtomicReferenceArray<>(Math.max(windowSeconds, 1));
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, new ConcurrentHashMap<>());
+        }
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                onMessage(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(CACHE_HOT_KEY_CHANNEL));
+    }
+
+    /**
+     * 记录一次访问，按采样率计数
+     */
+    public void record(String key) {
+        if (!enabled || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        Map<String, LongAdder> bucket = buckets.get(current);
+        LongAdder counter = bucket.get(key);
+        if (counter == null) {
+            if (bucket.size() >= maxTrackedKeys) {
+                // 限制统计的key数量，避免随机key撑爆内存
+                return;
+            }
+            counter = bucket.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public boolean isHot(String key) {
+        Long expireAt = hotKeys.get(key);
+        return expireAt != null && expireAt > System.currentTimeMillis();
+    }
+
+    /**
+     * 每秒汇总一次窗口内的访问次数，判定并广播热点key，然后滑动窗口
+     */
+    @Scheduled(fixedRate = BUCKET_MILLIS)
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        Map<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.get(i).forEach((key, counter) -> counts.merge(key, counter.sum(), Long::sum));
+        }
+        Map<String, Long> previous = localHotKeys;
+        Map<String, Long> hot = new HashMap<>();
+        counts.forEach((key, sampled) -> {
+            long estimated = (long) (sampled / sampleRate);
+            // 已经是热点的key降到阈值一半以下才降级，避免在阈值附近反复升降
+            long limit = previous.containsKey(key) ? threshold / 2 : threshold;
+            if (estimated >= limit) {
+                hot.put(key, estimated);
+            }
+        });
+        hot.keySet().stream().filter(key -> !previous.containsKey(key))
+                .forEach(key -> log.info("发现热点key：{}，窗口内访问约{}次", key, hot.get(key)));
+        localHotKeys = hot;
+        // 清空最旧的桶作为新的当前桶
+        int next = (current + 1) % buckets.length();
+        buckets.set(next, new ConcurrentHashMap<>());
+        current = next;
+        long now = System.currentTimeMillis();
+        hotKeys.values().removeIf(expireAt -> expireAt <= now);
+        if (!hot.isEmpty()) {
+            try {
+                stringRedisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, String.join(SEPARATOR, hot.keySet()));
+            } catch (Exception e) {
+                log.error("广播热点key失败", e);
+            }
+        }
+    }
+
+    /**
+     * @return 本节点统计的热点key及估算的访问次数，以及集群内当前生效的热点key
+     */
+    public Map<String, Object> getHotKeys() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("windowSeconds", buckets.length());
+        result.put("threshold", threshold);
+        result.put("local", localHotKeys);
+        long now = System.currentTimeMillis();
+        result.put("cluster", hotKeys.entrySet().stream()
+                .filter(e -> e.getValue() > now)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toArray());
+        return result;
+    }
+
+    public int hotKeyCount() {
+        return hotKeys.size();
+    }
+
+    private void onMessage(String message) {
+        // 热点标记保留三个统计周期，期间没有节点继续广播则自动降级
+        long expireAt = System.currentTimeMillis() + 3 * BUCKET_MILLIS;
+        for (String key : message.split(SEPARATOR)) {
+            if (!key.isEmpty()) {
+                hotKeys.put(key, expireAt);
+            }
+        }
+    }
+}
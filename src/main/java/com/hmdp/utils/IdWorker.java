@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 全局唯一id生成器，通过 hmdp.id.strategy 选择实现：
+ * redis（默认，{@link RedisIdWorker}）或 snowflake（{@link SnowflakeIdWorker}）
+ */
+public interface IdWorker {
+    long nextId(String keyPrefix);
+
+    /**
+     * 生成器的运行统计，默认没有
+     */
+    default Map<String, Object> getStats() {
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,126 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Array;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * 原有的缓存格式：hutool生成的json字符串，经RedisTemplate默认的jdk序列化后写入；
+ * 空值标记为空字符串，逻辑过期的数据包装为RedisData。
+ * 为了提前刷新，带过期时间的数据包装为 {"data":..,"expireAt":..,"computeMillis":..}，
+ * 逻辑过期的数据额外写入computeMillis；没有包装的旧数据照常读取，只是不会提前刷新
+ */
+@Component
+@ConditionalOnProperty(name = "hmdp.cache.codec.format", havingValue = "json", matchIfMissing = true)
+public class JsonCacheCodec implements CacheCodec {
+
+    private static final RedisSerializer<Object> JDK_SERIALIZER = RedisSerializer.java();
+
+    private static final String DATA = "data";
+    private static final String EXPIRE_AT = "expireAt";
+    private static final String COMPUTE_MILLIS = "computeMillis";
+
+    @Override
+    public byte[] encode(CacheEntry entry) {
+        String json;
+        if (entry.getLogicalExpireAt() > 0) {
+            RedisData redisData = new RedisData();
+            redisData.setData(entry.getData());
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.getLogicalExpireAt()),
+                    ZoneId.systemDefault()));
+            JSONObject object = JSONUtil.parseObj(redisData);
+            object.set(COMPUTE_MILLIS, entry.getComputeMillis());
+            json = object.toString();
+        } else if (entry.getData() == null) {
+            json = "";
+        } else if (entry.getExpireAt() > 0) {
+            JSONObject object = new JSONObject();
+            object.set(DATA, JSONUtil.parse(entry.getData()));
+            object.set(EXPIRE_AT, entry.getExpireAt());
+            object.set(COMPUTE_MILLIS, entry.getComputeMillis());
+            json = object.toString();
+        } else {
+            json = JSONUtil.toJsonStr(entry.getData());
+        }
+        return JDK_SERIALIZER.serialize(json);
+    }
+
+    @Override
+    public CacheEntry decode(byte[] bytes, Class<?> type, boolean logicalExpire) {
+        Object value = JDK_SERIALIZER.deserialize(bytes);
+        if (!(value instanceof String)) {
+            return null;
+        }
+        String json = (String) value;
+        if (StrUtil.isBlank(json)) {
+            return new CacheEntry(null, 0);
+        }
+        Object parsed = JSONUtil.parse(json);
+        if (!logicalExpire) {
+            if (isTtlEnvelope(parsed)) {
+                JSONObject object = (JSONObject) parsed;
+                return new CacheEntry(toData(object.get(DATA), type), 0,
+                        object.getLong(EXPIRE_AT), object.getLong(COMPUTE_MILLIS, 0L));
+            }
+            return new CacheEntry(toData(parsed, type), 0);
+        }
+        if (!(parsed instanceof JSONObject)) {
+            return null;
+        }
+        RedisData redisData = JSONUtil.toBean((JSONObject) parsed, RedisData.class);
+        if (redisData.getExpireTime() == null) {
+            // 不是逻辑过期的格式（如切换策略前按过期时间写入的数据），按未命中处理
+            return null;
+        }
+        Object data = redisData.getData() == null ? null : toData(redisData.getData(), type);
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new CacheEntry(data, expireAt, 0, ((JSONObject) parsed).getLong(COMPUTE_MILLIS, 0L));
+    }
+
+    /**
+     * 带过期时间的包装：只有data、expireAt、computeMillis三个字段且包含expireAt
+     */
+    private static boolean isTtlEnvelope(Object json) {
+        if (!(json instanceof JSONObject)) {
+            return false;
+        }
+        JSONObject object = (JSONObject) json;
+        if (!object.containsKey(EXPIRE_AT) || !object.containsKey(DATA)) {
+            return false;
+        }
+        for (String key : object.keySet()) {
+            if (!DATA.equals(key) && !EXPIRE_AT.equals(key) && !COMPUTE_MILLIS.equals(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 数组类型的数据（如列表缓存）存为json数组，其余存为json对象
+     */
+    private static Object toData(Object json, Class<?> type) {
+        if (type.isArray()) {
+            List<?> list = ((JSONArray) json).toList(type.getComponentType());
+            return list.toArray((Object[]) Array.newInstance(type.getComponentType(), list.size()));
+        }
+        return JSONUtil.toBean((JSONObject) json, type);
+    }
+
+    /**
+     * 是否为jdk序列化的数据（以0xACED开头）
+     */
+    static boolean isJdkSerialized(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+}
@@ -0,0 +1,31 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * 运维接口拦截器，只放行配置的管理员用户，需要在登录拦截器之后执行
+ */
+public class OpsInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds;
+
+    public OpsInterceptor(Set<Long> adminIds) {
+        this.adminIds = adminIds;
+    }
+
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //1 未配置管理员时运维接口全部关闭
+        UserDTO user = UserHolder.getUser();
+        if (user == null || !adminIds.contains(user.getId())) {
+            response.setStatus(403);
+            return false;
+        }
+        //2 管理员，放行
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 游标分页的游标：上一页最后一条记录的排序值和id，编码成对客户端不透明的字符串。
+ * 客户端第一页传空字符串，之后原样传回上一页返回的游标
+ */
+public class PageCursor {
+
+    private static final String SEPARATOR = ":";
+
+    private PageCursor() {
+    }
+
+    public static String encode(Object... parts) {
+        return Base64.encodeUrlSafe(StrUtil.join(SEPARATOR, parts));
+    }
+
+    /**
+     * 解析游标
+     *
+     * @param size 游标包含的字段数量
+     * @throws IllegalArgumentException 游标格式错误
+     */
+    public static String[] decode(String cursor, int size) {
+        String[] parts;
+        try {
+            parts = Base64.decodeStr(cursor, StandardCharsets.UTF_8).split(SEPARATOR, -1);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+        if (parts.length != size) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+        return parts;
+    }
+
+    /**
+     * 解析带查询方式的游标，游标的第一个字段是查询方式
+     *
+     * @param mode 当前的查询方式
+     * @param size 除查询方式外游标包含的字段数量
+     * @return 除查询方式外的字段；游标由其他查询方式生成时返回null，调用方从第一页重新查询
+     * @throws IllegalArgumentException 游标格式错误
+     */
+    public static String[] decode(String cursor, String mode, int size) {
+        String[] parts;
+        try {
+            parts = Base64.decodeStr(cursor, StandardCharsets.UTF_8).split(SEPARATOR, -1);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+        if (!mode.equals(parts[0])) {
+            return null;
+        }
+        if (parts.length != size + 1) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+        return Arrays.copyOfRange(parts, 1, parts.length);
+    }
+
+    /**
+     * 解析只包含id的游标，第一页返回null
+     *
+     * @throws IllegalArgumentException 游标格式错误
+     */
+    public static Long decodeId(String cursor) {
+        if (cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(decode(cursor, 1)[0]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的分页游标", e);
+        }
+    }
+
+    /**
+     * 多查询一条判断是否还有下一页，有时去掉多查的一条，返回最后一条记录的游标
+     *
+     * @param rows 最多pageSize + 1条记录
+     * @return 下一页的游标，没有下一页时返回null
+     */
+    public static <T> String next(List<T> rows, int pageSize, Function<T, String> cursorOf) {
+        if (rows.size() <= pageSize) {
+            return null;
+        }
+        rows.subList(pageSize, rows.size()).clear();
+        return cursorOf.apply(rows.get(pageSize - 1));
+    }
+}
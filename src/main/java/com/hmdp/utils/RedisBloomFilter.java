@@ -0,0 +1,213 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY;
+
+/**
+ * 布隆过滤器：位图保存在redis（bloom:{name}），每个节点在本地保存一份镜像，判断时只访问本地。
+ * <p>
+ * 新增id时先写本地再写redis，并通过发布订阅通知其他节点，redis失败时本节点也不会误判为不存在；
+ * 全量重建时在临时key上构建好后RENAME替换，构建期间新增的id在替换后重放，避免丢失。
+ * 本地镜像未加载成功前一律判断为可能存在，不拦截任何请求。
+ */
+@Slf4j
+public class RedisBloomFilter implements ExistenceFilter {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final String name;
+
+    private final byte[] key;
+
+    private final byte[] tmpKey;
+
+    private final String channel;
+
+    /**
+     * 位数组长度，是64的整数倍
+     */
+    private final long numBits;
+
+    private final int numHashes;
+
+    private final long expectedInsertions;
+
+    /**
+     * 本地镜像，位的排列与redis位图一致：第i位是第i/64个long的从高到低第i%64位
+     */
+    private volatile AtomicLongArray bits;
+
+    /**
+     * 最近新增的id -> 新增时间，替换本地镜像或redis位图后重放
+     */
+    private final Map<String, Long> recentPuts = new ConcurrentHashMap<>();
+
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                            String name, long expectedInsertions, double fpp) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.name = name;
+        this.key = (BLOOM_FILTER_KEY + name).getBytes(StandardCharsets.UTF_8);
+        this.tmpKey = (BLOOM_FILTER_KEY + name + ":tmp").getBytes(StandardCharsets.UTF_8);
+        this.channel = BLOOM_ADD_CHANNEL + name;
+        this.expectedInsertions = expectedInsertions;
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.numBits = (m + 63) / 64 * 64;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        // 其他节点新增的id同步到本地镜像
+        listenerContainer.addMessageListener((message, pattern) ->
+                putLocal(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(channel));
+    }
+
+    @Override
+    public boolean mightContain(Object id) {
+        AtomicLongArray current = bits;
+        if (current == null) {
+            return true;
+        }
+        for (long index : indexes(id.toString())) {
+            if ((current.get((int) (index >>> 6)) & mask(index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void put(Object id) {
+        String value = id.toString();
+        putLocal(value);
+        try {
+            long[] indexes = indexes(value);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (long index : indexes) {
+                    connection.stringCommands().setBit(key, index, true);
+                }
+                return null;
+            });
+            stringRedisTemplate.convertAndSend(channel, value);
+        } catch (Exception e) {
+            // 写入失败时其他节点可能误判该id不存在，等待下次全量重建修正
+            log.error("布隆过滤器{}写入redis失败，id={}", name, value, e);
+        }
+    }
+
+    /**
+     * 从redis加载位图到本地镜像
+     *
+     * @return redis中没有位图，或位图长度与当前配置不一致时返回false，需要重建
+     */
+    public boolean load() {
+        long startedAt = System.currentTimeMillis();
+        byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key));
+        if (bytes == null || bytes.length != numBits / 8) {
+            return false;
+        }
+        AtomicLongArray loaded = new AtomicLongArray((int) (numBits / 64));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < loaded.length(); i++) {
+            loaded.set(i, buffer.getLong());
+        }
+        swap(loaded, startedAt, false);
+        return true;
+    }
+
+    /**
+     * 根据全量id重建位图，替换redis和本地镜像
+     */
+    public void rebuild(Iterable<?> ids) {
+        long startedAt = System.currentTimeMillis();
+        AtomicLongArray rebuilt = new AtomicLongArray((int) (numBits / 64));
+        long count = 0;
+        for (Object id : ids) {
+            setBits(rebuilt, indexes(id.toString()));
+            count++;
+        }
+        if (count > expectedInsertions) {
+            log.warn("布隆过滤器{}的元素数量{}超过预期{}，误判率会升高", name, count, expectedInsertions);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (numBits / 8));
+        for (int i = 0; i < rebuilt.length(); i++) {
+            buffer.putLong(rebuilt.get(i));
+        }
+        byte[] bytes = buffer.array();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.stringCommands().set(tmpKey, bytes);
+            connection.keyCommands().rename(tmpKey, key);
+            return null;
+        });
+        swap(rebuilt, startedAt, true);
+        log.info("布隆过滤器{}重建完成，元素数量{}", name, count);
+    }
+
+    /**
+     * 替换本地镜像，并重放开始构建之后新增的id
+     */
+    private void swap(AtomicLongArray replacement, long startedAt, boolean replayToRedis) {
+        bits = replacement;
+        recentPuts.forEach((id, putAt) -> {
+            if (putAt < startedAt) {
+                recentPuts.remove(id, putAt);
+                return;
+            }
+            long[] indexes = indexes(id);
+            setBits(replacement, indexes);
+            if (replayToRedis) {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (long index : indexes) {
+                        connection.stringCommands().setBit(key, index, true);
+                    }
+                    return null;
+                });
+            }
+        });
+    }
+
+    private void putLocal(String id) {
+        recentPuts.put(id, System.currentTimeMillis());
+        AtomicLongArray current = bits;
+        if (current != null) {
+            setBits(current, indexes(id));
+        }
+    }
+
+    private static void setBits(AtomicLongArray array, long[] indexes) {
+        for (long index : indexes) {
+            int word = (int) (index >>> 6);
+            long mask = mask(index);
+            long old;
+            do {
+                old = array.get(word);
+            } while ((old & mask) == 0 && !array.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    private static long mask(long index) {
+        return Long.MIN_VALUE >>> (index & 63);
+    }
+
+    /**
+     * 双重哈希：第i个位置为 h1 + i * h2
+     */
+    private long[] indexes(String id) {
+        long[] hash = MurmurHash.hash128(id);
+        long[] indexes = new long[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            indexes[i] = Math.floorMod(hash[0] + i * hash[1], numBits);
+        }
+        return indexes;
+    }
+}
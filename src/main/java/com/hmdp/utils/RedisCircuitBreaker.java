@@ -0,0 +1,247 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * CacheClient访问redis的熔断器。
+ * <p>
+ * 关闭状态下按秒分桶统计滑动窗口内的调用，失败率或慢调用比例超过阈值时打开；
+ * 打开后所有调用立即失败，不再等待命令超时，由定时任务在等待时间之后PING redis探测，
+ * 成功后进入半开状态，放行少量真实调用，全部成功才关闭，任一失败或过慢则重新打开。
+ */
+@Slf4j
+@Component
+public class RedisCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.cache.circuit-breaker.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.circuit-breaker.window-seconds:10}")
+    private int windowSeconds;
+
+    @Value("${hmdp.cache.circuit-breaker.minimum-calls:20}")
+    private long minimumCalls;
+
+    @Value("${hmdp.cache.circuit-breaker.failure-rate-threshold:0.5}")
+    private double failureRateThreshold;
+
+    @Value("${hmdp.cache.circuit-breaker.slow-call-millis:200}")
+    private long slowCallMillis;
+
+    @Value("${hmdp.cache.circuit-breaker.slow-call-rate-threshold:0.8}")
+    private double slowCallRateThreshold;
+
+    @Value("${hmdp.cache.circuit-breaker.open-millis:5000}")
+    private long openMillis;
+
+    @Value("${hmdp.cache.circuit-breaker.half-open-calls:10}")
+    private int halfOpenCalls;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    private volatile long openedAt;
+
+    /**
+     * 半开状态下剩余可放行的调用数和已成功的调用数
+     */
+    private final AtomicInteger halfOpenPermits = new AtomicInteger();
+    private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+
+    private Bucket[] buckets;
+
+    private final LongAdder trips = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        buckets = new Bucket[windowSeconds];
+        for (int i = 0; i < windowSeconds; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * 执行redis调用，熔断时或调用失败时抛出CacheUnavailableException
+     */
+    public <T> T execute(Supplier<T> call) {
+        if (!enabled) {
+            try {
+                return call.get();
+            } catch (RuntimeException e) {
+                throw new CacheUnavailableException("redis调用失败", e);
+            }
+        }
+        State current = state.get();
+        if (current == State.OPEN
+                || current == State.HALF_OPEN && halfOpenPermits.getAndDecrement() <= 0) {
+            rejected.increment();
+            throw new CacheUnavailableException("redis熔断中");
+        }
+        long start = System.nanoTime();
+        T r;
+        try {
+            r = call.get();
+        } catch (RuntimeException e) {
+            onCall(current, true, false);
+            throw new CacheUnavailableException("redis调用失败", e);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        onCall(current, false, elapsedMillis >= slowCallMillis);
+        return r;
+    }
+
+    public boolean isOpen() {
+        return enabled && state.get() == State.OPEN;
+    }
+
+    /**
+     * 打开等待时间过后PING redis，成功则进入半开状态，失败则继续等待
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.circuit-breaker.probe-interval-millis:1000}")
+    public void probe() {
+        if (state.get() != State.OPEN || System.currentTimeMillis() - openedAt < openMillis) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.ping());
+        } catch (Exception e) {
+            log.warn("redis探测失败，熔断器保持打开：{}", e.toString());
+            openedAt = System.currentTimeMillis();
+            return;
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= slowCallMillis) {
+            openedAt = System.currentTimeMillis();
+            return;
+        }
+        halfOpenSuccesses.set(0);
+        halfOpenPermits.set(halfOpenCalls);
+        if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            log.info("redis探测成功，熔断器半开");
+        }
+    }
+
+    private void onCall(State observed, boolean failure, boolean slow) {
+        if (observed == State.HALF_OPEN) {
+            if (failure || slow) {
+                trip(State.HALF_OPEN);
+            } else if (halfOpenSuccesses.incrementAndGet() >= halfOpenCalls
+                    && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                for (Bucket bucket : buckets) {
+                    bucket.reset(0);
+                }
+                log.info("redis已恢复，熔断器关闭");
+            }
+            return;
+        }
+        Bucket bucket = currentBucket();
+        bucket.calls.increment();
+        if (failure) {
+            bucket.failures.increment();
+        }
+        if (slow) {
+            bucket.slowCalls.increment();
+        }
+        if ((failure || slow) && shouldTrip()) {
+            trip(State.CLOSED);
+        }
+    }
+
+    private boolean shouldTrip() {
+        long[] window = window();
+        long calls = window[0];
+        return calls >= minimumCalls
+                && (window[1] >= calls * failureRateThreshold || window[2] >= calls * slowCallRateThreshold);
+    }
+
+    private void trip(State from) {
+        if (state.compareAndSet(from, State.OPEN)) {
+            openedAt = System.currentTimeMillis();
+            trips.increment();
+            long[] window = window();
+            log.warn("redis熔断器打开，窗口内调用{}次，失败{}次，慢调用{}次", window[0], window[1], window[2]);
+        }
+    }
+
+    /**
+     * 窗口内的调用数、失败数、慢调用数
+     */
+    private long[] window() {
+        long now = currentSecond();
+        long[] sum = new long[3];
+        for (Bucket bucket : buckets) {
+            if (now - bucket.second < windowSeconds) {
+                sum[0] += bucket.calls.sum();
+                sum[1] += bucket.failures.sum();
+                sum[2] += bucket.slowCalls.sum();
+            }
+        }
+        return sum;
+    }
+
+    private Bucket currentBucket() {
+        long second = currentSecond();
+        Bucket bucket = buckets[(int) (second % windowSeconds)];
+        if (bucket.second != second) {
+            synchronized (bucket) {
+                if (bucket.second != second) {
+                    bucket.reset(second);
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private static long currentSecond() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long[] window = window();
+        stats.put("enabled", enabled);
+        stats.put("state", state.get());
+        stats.put("trips", trips.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("windowCalls", window[0]);
+        stats.put("windowFailures", window[1]);
+        stats.put("windowSlowCalls", window[2]);
+        return stats;
+    }
+
+    private static final class Bucket {
+        private volatile long second = -1;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder slowCalls = new LongAdder();
+
+        private void reset(long second) {
+            calls.reset();
+            failures.reset();
+            slowCalls.reset();
+            this.second = second;
+        }
+    }
+}
@@ -11,12 +11,45 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final long CACHE_SHOP_TYPE_TTL = 30L;
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType:";
+
+    public static final long CACHE_SHOP_VOUCHER_TTL = 1L;
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:voucher:shop:";
+
+    public static final long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_CACHE_KEY = "lock:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_HOT_KEY_CHANNEL = "cache:hotkey";
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add:";
+    public static final String LOCK_BLOOM_KEY = "lock:bloom:";
+    public static final String LOCK_WARM_UP_KEY = "lock:warmup";
+    public static final String LOCK_SECKILL_REBALANCE_KEY = "lock:seckill:rebalance";
+    public static final String CACHE_WARM_UP_DONE_KEY = "cache:warmup:done";
 
+    public static final String SECKILL_META_KEY = "seckill:meta:";
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ROLLBACK_KEY = "seckill:rollback:";
+    public static final String SECKILL_SHARDED_KEY = "seckill:sharded";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_STREAMS_KEY = "seckill:streams";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_META_EVICT_CHANNEL = "seckill:meta:evict";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_CHANGE_CHANNEL = "shop:geo:change";
+    public static final String SHOP_NAME_CHANGE_CHANNEL = "shop:name:change";
+    public static final String SHOP_RANK_KEY = "shop:rank:";
+    public static final String SHOP_RANK_LOADED_KEY = "shop:rank:loaded";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String ID_WORKER_KEY = "id:worker:";
 }
@@ -1,34 +1,196 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 全局id生成器：id = 时间戳（秒） << 32 | 当天序列号，序列号由redis按key前缀和日期自增。
+ * <p>
+ * segment模式下每次用INCRBY租用一段序列号，在本地内存中无锁分配，
+ * 当前号段剩余不足时异步预取下一段，生成id不再需要访问redis。
+ */
+@Slf4j
 @Component
-public class RedisIdWorker {
+@ConditionalOnProperty(name = "hmdp.id.strategy", havingValue = "redis", matchIfMissing = true)
+public class RedisIdWorker implements IdWorker {
 
     private static final long BEGIN_TIMESTAMP = 1672531200L; //开始时间戳
-    private RedisTemplate redisTemplate;
+    private static final int COUNT_BITS = 32;
+    private static final long SECONDS_PER_DAY = 86400L;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
 
-    public RedisIdWorker(RedisTemplate redisTemplate) {
+    private final RedisTemplate redisTemplate;
+
+    /**
+     * 号段大小，小于等于0时每个id都INCR一次redis
+     */
+    private final long segmentSize;
+
+    /**
+     * 当前号段剩余数量低于该值时预取下一段
+     */
+    private final long prefetchRemaining;
+
+    private final Map<String, SegmentAllocator> allocators = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+
+    private volatile DateKey dateKey;
+
+    public RedisIdWorker(RedisTemplate redisTemplate,
+                         @Value("${hmdp.id.segment-size:0}") long segmentSize,
+                         @Value("${hmdp.id.prefetch-ratio:0.2}") double prefetchRatio) {
         this.redisTemplate = redisTemplate;
+        this.segmentSize = segmentSize;
+        this.prefetchRemaining = (long) (segmentSize * prefetchRatio);
     }
 
+    @Override
     public long nextId(String keyPrefix) {
         // 生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long second = now.toEpochSecond(ZoneOffset.UTC);
+        long second = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
         long timestamp = second - BEGIN_TIMESTAMP;
-        // 生成序列号
-        //获取当前日期精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //自增长
-        long count = redisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        // 生成序列号，序列号按天重置
+        String date = dateOf(second);
+        long count;
+        if (segmentSize > 0) {
+            count = allocators.computeIfAbsent(keyPrefix, SegmentAllocator::new).next(date);
+        } else {
+            //自增长
+            count = redisTemplate.opsForValue().increment(countKey(keyPrefix, date));
+        }
         // 拼接并返回
-        return timestamp << 32 | count;
+        return timestamp << COUNT_BITS | count;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 获取当天的日期字符串，同一天内复用，避免每次都格式化
+     */
+    private String dateOf(long second) {
+        long day = Math.floorDiv(second, SECONDS_PER_DAY);
+        DateKey key = dateKey;
+        if (key == null || key.day != day) {
+            key = new DateKey(day, LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
+            dateKey = key;
+        }
+        return key.date;
+    }
+
+    private static String countKey(String keyPrefix, String date) {
+        return "icr:" + keyPrefix + ":" + date;
+    }
+
+    private static final class DateKey {
+        private final long day;
+        private final String date;
+
+        private DateKey(long day, String date) {
+            this.day = day;
+            this.date = date;
+        }
+    }
+
+    /**
+     * 号段：[cursor, end]，cursor原子递增
+     */
+    private static final class Segment {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long end;
+
+        private Segment(String date, long start, long end) {
+            this.date = date;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    /**
+     * 单个key前缀的号段分配器
+     */
+    private final class SegmentAllocator {
+
+        private final String keyPrefix;
+
+        private volatile Segment current;
+
+        private CompletableFuture<Segment> next;
+
+        private SegmentAllocator(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(String date) {
+            while (true) {
+                Segment segment = current;
+                // 号段属于当天才能使用，跨天后序列号从新的key重新租用
+                if (segment != null && segment.date.equals(date)) {
+                    long count = segment.cursor.getAndIncrement();
+                    if (count <= segment.end) {
+                        // 剩余数量恰好到达阈值的线程负责预取，只会触发一次
+                        if (segment.end - count == prefetchRemaining) {
+                            prefetch(date);
+                        }
+                        return count;
+                    }
+                }
+                switchSegment(segment, date);
+            }
+        }
+
+        private synchronized void prefetch(String date) {
+            if (next == null) {
+                next = CompletableFuture.supplyAsync(() -> lease(date), prefetchExecutor);
+            }
+        }
+
+        private synchronized void switchSegment(Segment exhausted, String date) {
+            if (current != exhausted) {
+                // 其他线程已经切换
+                return;
+            }
+            Segment segment = null;
+            if (next != null) {
+                try {
+                    segment = next.join();
+                } catch (Exception e) {
+                    log.error("预取id号段失败, keyPrefix={}", keyPrefix, e);
+                }
+                next = null;
+            }
+            if (segment == null || !segment.date.equals(date)) {
+                segment = lease(date);
+            }
+            current = segment;
+        }
+
+        /**
+         * INCRBY租用一段序列号
+         */
+        private Segment lease(String date) {
+            Long end = redisTemplate.opsForValue().increment(countKey(keyPrefix, date), segmentSize);
+            return new Segment(date, end - segmentSize + 1, end);
+        }
     }
 
 }
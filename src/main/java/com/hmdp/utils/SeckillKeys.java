@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_ROLLBACK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存分片的key。每个分片的库存、已购用户、回滚记录和订单队列带有相同的hash tag {voucherId:shard}，
+ * 在redis集群中落在同一个slot，秒杀脚本只操作一个分片；不分片的秒杀券只有0号分片
+ */
+public class SeckillKeys {
+
+    private SeckillKeys() {
+    }
+
+    public static String stock(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + tag(voucherId, shard);
+    }
+
+    public static String order(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + tag(voucherId, shard);
+    }
+
+    public static String rollback(Long voucherId, int shard) {
+        return SECKILL_ROLLBACK_KEY + tag(voucherId, shard);
+    }
+
+    public static String stream(Long voucherId, int shard) {
+        return SECKILL_ORDER_STREAM + ":" + tag(voucherId, shard);
+    }
+
+    /**
+     * 用户所属分片，同一用户固定落在同一分片，由该分片的已购用户保证一人一单
+     */
+    public static int home(Long userId, int shards) {
+        return shards <= 1 ? 0 : (int) Math.floorMod(userId, (long) shards);
+    }
+
+    /**
+     * 解析订单队列key中的秒杀券id和分片
+     *
+     * @return [秒杀券id, 分片]
+     * @throws IllegalArgumentException key格式错误
+     */
+    public static long[] parseStream(String streamKey) {
+        int begin = streamKey.indexOf('{');
+        int colon = streamKey.indexOf(':', begin);
+        int end = streamKey.indexOf('}', colon);
+        if (!streamKey.startsWith(SECKILL_ORDER_STREAM + ":") || begin < 0 || colon < 0 || end < 0) {
+            throw new IllegalArgumentException("无效的订单队列key：" + streamKey);
+        }
+        try {
+            return new long[]{Long.parseLong(streamKey.substring(begin + 1, colon)),
+                    Long.parseLong(streamKey.substring(colon + 1, end))};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的订单队列key：" + streamKey, e);
+        }
+    }
+
+    private static String tag(Long voucherId, int shard) {
+        return "{" + voucherId + ":" + shard + "}";
+    }
+}
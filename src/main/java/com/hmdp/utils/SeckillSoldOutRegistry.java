@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地售罄标记：秒杀券售罄后直接在JVM内拒绝请求，不再访问redis和数据库。
+ * 标记和清除都通过redis发布订阅广播到所有节点；
+ * 标记带有效期，过期后放行一次请求到redis重新确认，避免广播乱序导致永久误判售罄。
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry {
+
+    private static final String SOLD_OUT = "+";
+    private static final String AVAILABLE = "-";
+
+    /**
+     * 秒杀券id -> 售罄标记过期时间（毫秒）
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.seckill.sold-out-ttl-seconds:10}")
+    private long soldOutTtlSeconds;
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                onMessage(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt > System.currentTimeMillis()) {
+            return true;
+        }
+        // 标记已过期，放行请求到redis重新确认
+        soldOut.remove(voucherId, expireAt);
+        return false;
+    }
+
+    /**
+     * 标记售罄并通知其他节点，本节点已标记时不重复广播
+     */
+    public void markSoldOut(Long voucherId) {
+        if (isSoldOut(voucherId)) {
+            return;
+        }
+        markLocal(voucherId);
+        publish(SOLD_OUT + voucherId);
+    }
+
+    /**
+     * 库存恢复（补库存、订单取消、落库失败回滚）后清除所有节点的售罄标记
+     */
+    public void clearSoldOut(Long voucherId) {
+        soldOut.remove(voucherId);
+        publish(AVAILABLE + voucherId);
+    }
+
+    private void markLocal(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(soldOutTtlSeconds));
+    }
+
+    private void publish(String message) {
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, message);
+        } catch (Exception e) {
+            // 广播失败时其他节点的标记依靠有效期自愈
+            log.error("广播售罄标记失败：{}", message, e);
+        }
+    }
+
+    private void onMessage(String message) {
+        if (message.length() < 2) {
+            return;
+        }
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(message.substring(1));
+        } catch (NumberFormatException e) {
+            log.warn("无效的售罄消息：{}", message);
+            return;
+        }
+        if (message.startsWith(SOLD_OUT)) {
+            markLocal(voucherId);
+        } else if (message.startsWith(AVAILABLE)) {
+            soldOut.remove(voucherId);
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CHANGE_CHANNEL;
+
+/**
+ * 商铺坐标的进程内空间索引，附近商铺查询完全在JVM内完成，不再对redis执行GEOSEARCH。
+ * <p>
+ * 每个类型一个网格，按经纬度划分成边长cellDegrees的格子，每个格子用基本类型数组保存商铺id和坐标，
+ * 网格创建后不再修改，修改时复制该类型的整个网格，改好后一次替换，查询不加锁，不会看到修改到一半的网格。
+ * 每个节点在预热任务中各自全量构建，构建期间的修改在替换后重放；商铺新增或修改时更新本地索引，并通过发布订阅通知其他节点。
+ * <p>
+ * 查询坐标按queryCellDegrees对齐到小格子后，(小格子, 类型)的候选商铺会被缓存：以小格子中心为圆心、
+ * 半径加上小格子对角线的范围内的商铺，包含小格子内任意一点半径内的商铺。每次查询再按实际坐标计算距离、过滤和排序。
+ * 类型内任意商铺变化后版本号改变，旧结果不再命中，等待LRU淘汰。
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex {
+
+    /**
+     * 与redis GEO计算距离使用的地球半径一致
+     */
+    private static final double EARTH_RADIUS_METERS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+
+    /**
+     * 全局递增的版本号，网格每次变化都取一个新值，重建后也不会与旧网格的版本号重复
+     */
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    /**
+     * 不使用游标时的afterDistance，距离都不小于0
+     */
+    public static final double NO_CURSOR = -1;
+
+    /**
+     * redis GEO可保存的经纬度范围
+     */
+    public static final double MAX_LONGITUDE = 180;
+    public static final double MAX_LATITUDE = 85.05112878;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.geo.local.enabled:false}")
+    private boolean enabled;
+
+    @Value("${hmdp.geo.local.cell-degrees:0.01}")
+    private double cellDegrees;
+
+    @Value("${hmdp.geo.local.query-cell-degrees:0.001}")
+    private double queryCellDegrees;
+
+    @Value("${hmdp.geo.local.memo-size:10000}")
+    private int memoSize;
+
+    @Value("${hmdp.geo.local.memo-ttl-seconds:60}")
+    private long memoTtlSeconds;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * 最近修改的商铺 -> 修改时间，替换索引后重放
+     */
+    private final Map<Long, Change> recentChanges = new ConcurrentHashMap<>();
+
+    /**
+     * (类型, 版本号, 小格子, 半径) -> 候选商铺
+     */
+    private Cache<String, Cell> memo;
+
+    private final LongAdder memoHits = new LongAdder();
+    private final LongAdder memoMisses = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        memo = CacheUtil.newLRUCache(memoSize, TimeUnit.SECONDS.toMillis(memoTtlSeconds));
+        // 其他节点修改的商铺同步到本地索引
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                onMessage(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(SHOP_GEO_CHANGE_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 是否开启并且已经完成第一次构建
+     */
+    public boolean isReady() {
+        return enabled && snapshot != null;
+    }
+
+    /**
+     * 根据全量商铺重建索引，并重放开始构建之后的修改
+     *
+     * @param shops     类型和坐标都不为空的商铺
+     * @param startedAt 开始扫描数据库的时间，扫描期间的修改可能没有读到，需要重放
+     */
+    public void rebuild(List<Shop> shops, long startedAt) {
+        if (!enabled) {
+            return;
+        }
+        // 先按格子分组，再一次性生成每个格子的数组
+        Snapshot rebuilt = new Snapshot();
+        Map<Long, Map<Long, Change[]>> groups = new HashMap<>();
+        for (Shop shop : shops) {
+            Change change = new Change(shop.getId(), shop.getTypeId(), shop.getX(), shop.getY(), startedAt);
+            groups.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                    .merge(cellKey(shop.getX(), shop.getY()), new Change[]{change}, ShopGeoIndex::concat);
+            rebuilt.locations.put(shop.getId(), change);
+        }
+        groups.forEach((typeId, cells) -> {
+            Map<Long, Cell> built = new HashMap<>(cells.size() * 2);
+            cells.forEach((cellKey, changes) -> built.put(cellKey, Cell.of(changes)));
+            rebuilt.grids.put(typeId, new Grid(built));
+        });
+        synchronized (this) {
+            snapshot = rebuilt;
+            recentChanges.forEach((id, change) -> {
+                if (change.changedAt < startedAt) {
+                    recentChanges.remove(id, change);
+                    return;
+                }
+                apply(rebuilt, change);
+            });
+        }
+        log.info("商铺空间索引重建完成，商铺数量{}，类型数量{}", shops.size(), groups.size());
+    }
+
+    /**
+     * 商铺新增或修改后更新本地索引并通知其他节点，坐标为空时从索引中移除
+     */
+    public void update(Long shopId, Long typeId, Double x, Double y) {
+        if (!enabled) {
+            return;
+        }
+        updateLocal(new Change(shopId, typeId, x, y, System.currentTimeMillis()));
+        try {
+            stringRedisTemplate.convertAndSend(SHOP_GEO_CHANGE_CHANNEL,
+                    StrUtil.join(",", shopId, typeId, x, y));
+        } catch (Exception e) {
+            // 广播失败时其他节点等待下次全量构建修正
+            log.error("广播商铺坐标变化失败，shopId={}", shopId, e);
+        }
+    }
+
+    /**
+     * 查询附近的商铺，按距离由近到远、id由小到大排序
+     *
+     * @param afterDistance 游标分页时上一页最后一条的距离，只返回排在它之后的商铺；不使用游标时传NO_CURSOR
+     * @param afterId       游标分页时上一页最后一条的id
+     * @param from          当前页第一条的下标
+     * @param end           当前页最后一条的下标 + 1
+     */
+    public GeoPage search(Long typeId, double x, double y, double radiusMeters,
+                          double afterDistance, long afterId, int from, int end) {
+        Snapshot current = snapshot;
+        Grid grid = current == null ? null : current.grids.get(typeId);
+        if (grid == null) {
+            return GeoPage.EMPTY;
+        }
+        // 1查询坐标对齐到小格子，查询缓存的候选商铺
+        long qx = (long) Math.floor(x / queryCellDegrees);
+        long qy = (long) Math.floor(y / queryCellDegrees);
+        String memoKey = typeId + ":" + grid.version + ":" + qx + ":" + qy + ":" + radiusMeters;
+        Cell candidates = memo.get(memoKey, false);
+        if (candidates != null) {
+            memoHits.increment();
+        } else {
+            memoMisses.increment();
+            // 2未命中，在网格中查询小格子中心附近的商铺，范围扩大一个小格子对角线
+            double margin = queryCellDegrees * METERS_PER_DEGREE * Math.sqrt(2);
+            candidates = collect(grid, (qx + 0.5) * queryCellDegrees, (qy + 0.5) * queryCellDegrees,
+                    radiusMeters + margin);
+            memo.put(memoKey, candidates);
+        }
+        // 3按实际坐标计算距离并分页
+        return page(candidates, x, y, radiusMeters, afterDistance, afterId, from, end);
+    }
+
+    /**
+     * 不经过候选商铺缓存直接查询网格，用于和redis GEO对比
+     */
+    public GeoPage searchExact(Long typeId, double x, double y, double radiusMeters, int from, int end) {
+        Snapshot current = snapshot;
+        Grid grid = current == null ? null : current.grids.get(typeId);
+        return grid == null ? GeoPage.EMPTY
+                : page(collect(grid, x, y, radiusMeters), x, y, radiusMeters, NO_CURSOR, 0, from, end);
+    }
+
+    /**
+     * 坐标是否在redis GEO可保存的范围内
+     */
+    public static boolean isValidCoordinate(double x, double y) {
+        return x >= -MAX_LONGITUDE && x <= MAX_LONGITUDE && y >= -MAX_LATITUDE && y <= MAX_LATITUDE;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Snapshot current = snapshot;
+        stats.put("ready", isReady());
+        stats.put("shops", current == null ? 0 : current.locations.size());
+        stats.put("types", current == null ? 0 : current.grids.size());
+        stats.put("memoSize", memo == null ? 0 : memo.size());
+        stats.put("memoHits", memoHits.sum());
+        stats.put("memoMisses", memoMisses.sum());
+        return stats;
+    }
+
+    /**
+     * 收集(x, y)半径内的商铺
+     */
+    private Cell collect(Grid grid, double x, double y, double radiusMeters) {
+        // 1根据半径计算需要扫描的格子范围，经度方向的跨度随纬度增大，限制在经纬度范围内，避免高纬度时扫描过多格子
+        double dy = radiusMeters / METERS_PER_DEGREE;
+        double dx = dy / Math.max(Math.cos(Math.toRadians(y)), 1e-6);
+        long minCx = (long) Math.floor(Math.max(x - dx, -MAX_LONGITUDE) / cellDegrees);
+        long maxCx = (long) Math.floor(Math.min(x + dx, MAX_LONGITUDE) / cellDegrees);
+        long minCy = (long) Math.floor(Math.max(y - dy, -MAX_LATITUDE) / cellDegrees);
+        long maxCy = (long) Math.floor(Math.min(y + dy, MAX_LATITUDE) / cellDegrees);
+        // 2收集半径内的商铺
+        long[] ids = new long[16];
+        double[] xs = new double[16];
+        double[] ys = new double[16];
+        int count = 0;
+        for (long cx = minCx; cx <= maxCx; cx++) {
+            for (long cy = minCy; cy <= maxCy; cy++) {
+                Cell cell = grid.cells.get(cellKey(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.ids.length; i++) {
+                    if (distance(x, y, cell.xs[i], cell.ys[i]) > radiusMeters) {
+                        continue;
+                    }
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                        xs = Arrays.copyOf(xs, count * 2);
+                        ys = Arrays.copyOf(ys, count * 2);
+                    }
+                    ids[count] = cell.ids[i];
+                    xs[count] = cell.xs[i];
+                    ys[count] = cell.ys[i];
+                    count++;
+                }
+            }
+        }
+        return new Cell(Arrays.copyOf(ids, count), Arrays.copyOf(xs, count), Arrays.copyOf(ys, count));
+    }
+
+    /**
+     * 计算候选商铺到(x, y)的距离，过滤半径外和游标之前的商铺，按距离排序后截取当前页
+     */
+    private static GeoPage page(Cell candidates, double x, double y, double radiusMeters,
+                                double afterDistance, long afterId, int from, int end) {
+        // 下标为负时会越界，按第一页处理
+        from = Math.max(from, 0);
+        if (end <= from) {
+            return GeoPage.EMPTY;
+        }
+        // 1过滤
+        long[] ids = new long[candidates.ids.length];
+        double[] distances = new double[candidates.ids.length];
+        int count = 0;
+        for (int i = 0; i < candidates.ids.length; i++) {
+            double distance = distance(x, y, candidates.xs[i], candidates.ys[i]);
+            if (distance > radiusMeters || distance < afterDistance
+                    || distance == afterDistance && candidates.ids[i] <= afterId) {
+                continue;
+            }
+            ids[count] = candidates.ids[i];
+            distances[count] = distance;
+            count++;
+        }
+        if (from >= count) {
+            return GeoPage.EMPTY;
+        }
+        // 2按距离排序，截取当前页
+        double[] d = distances;
+        long[] s = ids;
+        int[] order = IntStream.range(0, count).boxed()
+                .sorted(Comparator.<Integer>comparingDouble(i -> d[i]).thenComparingLong(i -> s[i]))
+                .limit(end)
+                .mapToInt(Integer::intValue)
+                .toArray();
+        int size = order.length - from;
+        long[] pageIds = new long[size];
+        double[] pageDistances = new double[size];
+        for (int i = 0; i < size; i++) {
+            pageIds[i] = ids[order[from + i]];
+            pageDistances[i] = distances[order[from + i]];
+        }
+        return new GeoPage(pageIds, pageDistances);
+    }
+
+    private synchronized void updateLocal(Change change) {
+        recentChanges.put(change.shopId, change);
+        Snapshot current = snapshot;
+        if (current != null) {
+            apply(current, change);
+        }
+    }
+
+    /**
+     * 把修改应用到索引：复制涉及的类型的网格，从原来的格子中移除，再加入新的格子，最后替换网格，调用方持有锁
+     */
+    private void apply(Snapshot target, Change change) {
+        Map<Long, Map<Long, Cell>> changed = new HashMap<>(4);
+        Change old = target.locations.get(change.shopId);
+        if (old != null) {
+            Grid grid = target.grids.get(old.typeId);
+            if (grid != null) {
+                Map<Long, Cell> cells = changed.computeIfAbsent(old.typeId, k -> new HashMap<>(grid.cells));
+                long key = cellKey(old.x, old.y);
+                Cell cell = cells.get(key);
+                if (cell != null) {
+                    Cell removed = cell.without(change.shopId);
+                    if (removed.ids.length == 0) {
+                        cells.remove(key);
+                    } else {
+                        cells.put(key, removed);
+                    }
+                }
+            }
+        }
+        boolean located = change.typeId != null && change.x != null && change.y != null;
+        if (located) {
+            Map<Long, Cell> cells = changed.computeIfAbsent(change.typeId, k -> {
+                Grid grid = target.grids.get(k);
+                return grid == null ? new HashMap<>() : new HashMap<>(grid.cells);
+            });
+            cells.merge(cellKey(change.x, change.y), Cell.of(new Change[]{change}), Cell::plus);
+        }
+        // 每个类型的网格一次替换，替换后版本号随之改变
+        changed.forEach((typeId, cells) -> target.grids.put(typeId, new Grid(cells)));
+        if (located) {
+            target.locations.put(change.shopId, change);
+        } else {
+            target.locations.remove(change.shopId);
+        }
+    }
+
+    private void onMessage(String message) {
+        String[] parts = message.split(",", -1);
+        if (parts.length != 4) {
+            log.warn("无效的商铺坐标消息：{}", message);
+            return;
+        }
+        try {
+            updateLocal(new Change(Long.valueOf(parts[0]), parseLong(parts[1]), parseDouble(parts[2]),
+                    parseDouble(parts[3]), System.currentTimeMillis()));
+        } catch (NumberFormatException e) {
+            log.warn("无效的商铺坐标消息：{}", message);
+        }
+    }
+
+    private long cellKey(double x, double y) {
+        return cellKey((long) Math.floor(x / cellDegrees), (long) Math.floor(y / cellDegrees));
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return cx << 32 | (cy & 0xffffffffL);
+    }
+
+    /**
+     * 半正矢公式计算两点间的距离（米），与redis GEO的算法一致
+     */
+    private static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private static Long parseLong(String value) {
+        return "null".equals(value) ? null : Long.valueOf(value);
+    }
+
+    private static Double parseDouble(String value) {
+        return "null".equals(value) ? null : Double.valueOf(value);
+    }
+
+    private static Change[] concat(Change[] a, Change[] b) {
+        Change[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * 一页查询结果，ids和distances一一对应
+     */
+    public static class GeoPage {
+        static final GeoPage EMPTY = new GeoPage(new long[0], new double[0]);
+
+        public final long[] ids;
+        public final double[] distances;
+
+        public GeoPage(long[] ids, double[] distances) {
+            this.ids = ids;
+            this.distances = distances;
+        }
+    }
+
+    private static class Snapshot {
+        final Map<Long, Grid> grids = new ConcurrentHashMap<>();
+        /**
+         * 商铺id -> 当前所在的类型和坐标，修改时用于找到原来的格子
+         */
+        final Map<Long, Change> locations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 一个类型的网格，创建后不再修改
+     */
+    private static class Grid {
+        final Map<Long, Cell> cells;
+        final long version = VERSION.incrementAndGet();
+
+        Grid(Map<Long, Cell> cells) {
+            this.cells = cells;
+        }
+    }
+
+    /**
+     * 一个格子内的商铺，创建后不再修改
+     */
+    private static class Cell {
+        final long[] ids;
+        final double[] xs;
+        final double[] ys;
+
+        Cell(long[] ids, double[] xs, double[] ys) {
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        static Cell of(Change[] changes) {
+            long[] ids = new long[changes.length];
+            double[] xs = new double[changes.length];
+            double[] ys = new double[changes.length];
+            for (int i = 0; i < changes.length; i++) {
+                ids[i] = changes[i].shopId;
+                xs[i] = changes[i].x;
+                ys[i] = changes[i].y;
+            }
+            return new Cell(ids, xs, ys);
+        }
+
+        Cell plus(Cell other) {
+            int n = ids.length;
+            long[] newIds = Arrays.copyOf(ids, n + other.ids.length);
+            double[] newXs = Arrays.copyOf(xs, n + other.ids.length);
+            double[] newYs = Arrays.copyOf(ys, n + other.ids.length);
+            System.arraycopy(other.ids, 0, newIds, n, other.ids.length);
+            System.arraycopy(other.xs, 0, newXs, n, other.ids.length);
+            System.arraycopy(other.ys, 0, newYs, n, other.ids.length);
+            return new Cell(newIds, newXs, newYs);
+        }
+
+        Cell without(long shopId) {
+            int index = -1;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == shopId) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return this;
+            }
+            long[] newIds = new long[ids.length - 1];
+            double[] newXs = new double[ids.length - 1];
+            double[] newYs = new double[ids.length - 1];
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(xs, 0, newXs, 0, index);
+            System.arraycopy(ys, 0, newYs, 0, index);
+            System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+            System.arraycopy(xs, index + 1, newXs, index, ids.length - index - 1);
+            System.arraycopy(ys, index + 1, newYs, index, ids.length - index - 1);
+            return new Cell(newIds, newXs, newYs);
+        }
+    }
+
+    /**
+     * 商铺的类型和坐标
+     */
+    private static class Change {
+        final Long shopId;
+        final Long typeId;
+        final Double x;
+        final Double y;
+        final long changedAt;
+
+        Change(Long shopId, Long typeId, Double x, Double y, long changedAt) {
+            this.shopId = shopId;
+            this.typeId = typeId;
+            this.x = x;
+            this.y = y;
+            this.changedAt = changedAt;
+        }
+    }
+}
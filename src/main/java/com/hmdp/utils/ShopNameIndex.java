@@ -0,0 +1,524 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SHOP_NAME_CHANGE_CHANNEL;
+
+/**
+ * 商铺名称和商圈的进程内倒排索引，代替 LIKE '%name%' 的全表扫描。
+ * <p>
+ * 每个字段按单字和相邻两字切分（n-gram），每个gram对应一个升序的int数组，保存文档序号；
+ * 商铺名称的前一、两个字额外以"^"开头建索引，用于前缀补全。
+ * 查询时对关键字的所有gram求交集，再用contains校验，结果与LIKE一致；
+ * 排序依次为：名称完全相同、名称前缀匹配、名称包含、商圈包含，同一档内按评分从高到低，再按id从小到大，
+ * 排序值（档位和评分）加id可以作为游标。
+ * <p>
+ * 修改时在锁内复制受影响的倒排数组后替换，查询不加锁；
+ * 每个节点在预热任务中各自全量构建，构建期间的修改在替换后重放，并通过发布订阅通知其他节点。
+ */
+@Slf4j
+@Component
+public class ShopNameIndex {
+
+    private static final String PREFIX_MARK = "^";
+    private static final int TIER_NAME_EQUALS = 0;
+    private static final int TIER_NAME_PREFIX = 1;
+    private static final int TIER_NAME_CONTAINS = 2;
+    private static final int TIER_AREA_CONTAINS = 3;
+    private static final int MAX_SCORE = (1 << 20) - 1;
+    private static final int[] EMPTY_POSTING = new int[0];
+
+    /**
+     * 不使用游标时的afterRank，排序值都不小于0
+     */
+    public static final int NO_CURSOR = -1;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.search.local.enabled:true}")
+    private boolean enabled;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * 最近修改的商铺 -> 修改内容，替换索引后重放
+     */
+    private final Map<Long, Doc> recentChanges = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        // 其他节点修改的商铺同步到本地索引
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                onMessage(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(SHOP_NAME_CHANGE_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 是否开启并且已经完成第一次构建
+     */
+    public boolean isReady() {
+        return enabled && snapshot != null;
+    }
+
+    /**
+     * 根据全量商铺重建索引，并重放开始构建之后的修改
+     *
+     * @param startedAt 开始扫描数据库的时间，扫描期间的修改可能没有读到，需要重放
+     */
+    public void rebuild(List<Shop> shops, long startedAt) {
+        if (!enabled) {
+            return;
+        }
+        Snapshot rebuilt = new Snapshot(shops.size());
+        // 文档序号按顺序分配，每个gram的序号天然升序，先用可变数组收集再一次性生成
+        Map<String, IntList> postings = new HashMap<>();
+        for (Shop shop : shops) {
+            Doc doc = Doc.of(shop, startedAt);
+            int ordinal = rebuilt.size++;
+            rebuilt.docs[ordinal] = doc;
+            rebuilt.ordinals.put(doc.shopId, ordinal);
+            for (String gram : grams(doc)) {
+                postings.computeIfAbsent(gram, k -> new IntList()).add(ordinal);
+            }
+        }
+        postings.forEach((gram, list) -> rebuilt.postings.put(gram, list.toArray()));
+        synchronized (this) {
+            snapshot = rebuilt;
+            recentChanges.forEach((id, doc) -> {
+                if (doc.changedAt < startedAt) {
+                    recentChanges.remove(id, doc);
+                    return;
+                }
+                apply(rebuilt, doc);
+            });
+        }
+        log.info("商铺名称索引重建完成，商铺数量{}，gram数量{}", shops.size(), postings.size());
+    }
+
+    /**
+     * 商铺新增或修改后更新本地索引并通知其他节点
+     */
+    public void update(Shop shop) {
+        if (!enabled) {
+            return;
+        }
+        Doc doc = Doc.of(shop, System.currentTimeMillis());
+        updateLocal(doc);
+        try {
+            stringRedisTemplate.convertAndSend(SHOP_NAME_CHANGE_CHANNEL, JSONUtil.toJsonStr(new Shop()
+                    .setId(doc.shopId).setName(doc.name).setArea(doc.area).setScore(doc.score)));
+        } catch (Exception e) {
+            // 广播失败时其他节点等待下次全量构建修正
+            log.error("广播商铺名称变化失败，shopId={}", doc.shopId, e);
+        }
+    }
+
+    /**
+     * 按关键字查询名称或商圈包含关键字的商铺，按相关度和评分排序后分页
+     *
+     * @param afterRank 游标分页时上一页最后一条的排序值，只返回排在它之后的商铺；不使用游标时传NO_CURSOR
+     * @param afterId   游标分页时上一页最后一条的id
+     * @param from      当前页第一条的下标
+     * @param end       当前页最后一条的下标 + 1
+     */
+    public SearchPage search(String keyword, int afterRank, long afterId, int from, int end) {
+        Snapshot current = snapshot;
+        String query = normalize(keyword);
+        if (current == null || query.isEmpty()) {
+            return SearchPage.EMPTY;
+        }
+        // 1求所有gram的交集
+        int[] candidates = intersect(current, queryGrams(query, ""));
+        // 2校验并计算排序值：(档位 | 评分取反) << 32 | 文档序号，直接对long排序
+        long[] ranked = new long[candidates.length];
+        int count = 0;
+        for (int ordinal : candidates) {
+            Doc doc = current.docs[ordinal];
+            int tier;
+            if (doc.normalizedName.equals(query)) {
+                tier = TIER_NAME_EQUALS;
+            } else if (doc.normalizedName.startsWith(query)) {
+                tier = TIER_NAME_PREFIX;
+            } else if (doc.normalizedName.contains(query)) {
+                tier = TIER_NAME_CONTAINS;
+            } else if (doc.normalizedArea.contains(query)) {
+                tier = TIER_AREA_CONTAINS;
+            } else {
+                continue;
+            }
+            ranked[count++] = (long) rank(tier, doc.score) << 32 | ordinal;
+        }
+        // 3截取当前页
+        return page(current, ranked, count, afterRank, afterId, from, end);
+    }
+
+    /**
+     * 前缀补全：返回名称以prefix开头的商铺名称，按评分从高到低，名称去重
+     */
+    public List<String> suggest(String prefix, int limit) {
+        Snapshot current = snapshot;
+        String query = normalize(prefix);
+        if (current == null || query.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int[] candidates = intersect(current, queryGrams(query, PREFIX_MARK));
+        long[] ranked = new long[candidates.length];
+        int count = 0;
+        for (int ordinal : candidates) {
+            Doc doc = current.docs[ordinal];
+            if (doc.normalizedName.startsWith(query)) {
+                ranked[count++] = (long) rank(TIER_NAME_PREFIX, doc.score) << 32 | ordinal;
+            }
+        }
+        Arrays.sort(ranked, 0, count);
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < count && names.size() < limit; i++) {
+            names.add(current.docs[(int) ranked[i]].name);
+        }
+        return new ArrayList<>(names);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Snapshot current = snapshot;
+        stats.put("ready", isReady());
+        stats.put("shops", current == null ? 0 : current.ordinals.size());
+        stats.put("grams", current == null ? 0 : current.postings.size());
+        return stats;
+    }
+
+    /**
+     * 按排序值排序后，排序值相同的一段再按商铺id排序，跳过游标之前的商铺，截取当前页
+     */
+    private SearchPage page(Snapshot current, long[] ranked, int count, int afterRank, long afterId, int from, int end) {
+        if (from >= count) {
+            return SearchPage.EMPTY;
+        }
+        Arrays.sort(ranked, 0, count);
+        int size = Math.min(end - from, count - from);
+        long[] ids = new long[size];
+        int[] ranks = new int[size];
+        int n = 0;
+        int skipped = 0;
+        long[] group = new long[16];
+        for (int start = 0; start < count && n < size; ) {
+            int rank = (int) (ranked[start] >>> 32);
+            int stop = start;
+            while (stop < count && (int) (ranked[stop] >>> 32) == rank) {
+                stop++;
+            }
+            if (rank >= afterRank) {
+                if (group.length < stop - start) {
+                    group = new long[stop - start];
+                }
+                for (int i = start; i < stop; i++) {
+                    group[i - start] = current.docs[(int) ranked[i]].shopId;
+                }
+                Arrays.sort(group, 0, stop - start);
+                for (int i = 0; i < stop - start && n < size; i++) {
+                    if (rank == afterRank && group[i] <= afterId) {
+                        continue;
+                    }
+                    if (skipped++ < from) {
+                        continue;
+                    }
+                    ids[n] = group[i];
+                    ranks[n] = rank;
+                    n++;
+                }
+            }
+            start = stop;
+        }
+        return new SearchPage(Arrays.copyOf(ids, n), Arrays.copyOf(ranks, n));
+    }
+
+    /**
+     * 排序值：档位在高位，评分取反在低位，越小越靠前
+     */
+    private static int rank(int tier, int score) {
+        return tier << 20 | (MAX_SCORE - score);
+    }
+
+    /**
+     * 对升序数组求交集，从最短的数组开始
+     */
+    private static int[] intersect(Snapshot current, Set<String> grams) {
+        List<int[]> lists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            int[] posting = current.postings.get(gram);
+            if (posting == null) {
+                return EMPTY_POSTING;
+            }
+            lists.add(posting);
+        }
+        lists.sort((a, b) -> Integer.compare(a.length, b.length));
+        int[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            int[] other = lists.get(i);
+            int[] merged = new int[result.length];
+            int n = 0;
+            int k = 0;
+            for (int ordinal : result) {
+                while (k < other.length && other[k] < ordinal) {
+                    k++;
+                }
+                if (k == other.length) {
+                    break;
+                }
+                if (other[k] == ordinal) {
+                    merged[n++] = ordinal;
+                }
+            }
+            result = Arrays.copyOf(merged, n);
+        }
+        return result;
+    }
+
+    private synchronized void updateLocal(Doc doc) {
+        recentChanges.put(doc.shopId, doc);
+        Snapshot current = snapshot;
+        if (current != null) {
+            apply(current, doc);
+        }
+    }
+
+    /**
+     * 把修改应用到索引：商铺沿用原来的文档序号，只替换有变化的gram，调用方持有锁
+     */
+    private void apply(Snapshot target, Doc doc) {
+        Integer existing = target.ordinals.get(doc.shopId);
+        int ordinal;
+        Set<String> oldGrams;
+        if (existing != null) {
+            ordinal = existing;
+            oldGrams = grams(target.docs[ordinal]);
+        } else {
+            ordinal = target.size;
+            if (ordinal == target.docs.length) {
+                target.docs = Arrays.copyOf(target.docs, Math.max(16, ordinal * 2));
+            }
+            oldGrams = new LinkedHashSet<>();
+        }
+        // 先写入文档，再发布倒排数组，查询通过倒排数组找到的序号一定能读到文档
+        target.docs[ordinal] = doc;
+        if (existing == null) {
+            target.size++;
+            target.ordinals.put(doc.shopId, ordinal);
+        }
+        Set<String> newGrams = grams(doc);
+        for (String gram : oldGrams) {
+            if (!newGrams.contains(gram)) {
+                int[] removed = remove(target.postings.get(gram), ordinal);
+                if (removed.length == 0) {
+                    target.postings.remove(gram);
+                } else {
+                    target.postings.put(gram, removed);
+                }
+            }
+        }
+        for (String gram : newGrams) {
+            if (!oldGrams.contains(gram)) {
+                target.postings.put(gram, insert(target.postings.getOrDefault(gram, EMPTY_POSTING), ordinal));
+            }
+        }
+    }
+
+    private static int[] insert(int[] posting, int ordinal) {
+        int index = Arrays.binarySearch(posting, ordinal);
+        if (index >= 0) {
+            return posting;
+        }
+        index = -index - 1;
+        int[] result = new int[posting.length + 1];
+        System.arraycopy(posting, 0, result, 0, index);
+        result[index] = ordinal;
+        System.arraycopy(posting, index, result, index + 1, posting.length - index);
+        return result;
+    }
+
+    private static int[] remove(int[] posting, int ordinal) {
+        if (posting == null) {
+            return EMPTY_POSTING;
+        }
+        int index = Arrays.binarySearch(posting, ordinal);
+        if (index < 0) {
+            return posting;
+        }
+        int[] result = new int[posting.length - 1];
+        System.arraycopy(posting, 0, result, 0, index);
+        System.arraycopy(posting, index + 1, result, index, posting.length - index - 1);
+        return result;
+    }
+
+    private void onMessage(String message) {
+        try {
+            updateLocal(Doc.of(JSONUtil.toBean(message, Shop.class), System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.warn("无效的商铺名称消息：{}", message);
+        }
+    }
+
+    /**
+     * 文档的所有gram：名称和商圈的单字、相邻两字，以及名称的前缀
+     */
+    private static Set<String> grams(Doc doc) {
+        Set<String> grams = new LinkedHashSet<>();
+        addGrams(grams, doc.normalizedName);
+        addGrams(grams, doc.normalizedArea);
+        String name = doc.normalizedName;
+        if (!name.isEmpty()) {
+            grams.add(PREFIX_MARK + name.substring(0, 1));
+            if (name.length() > 1) {
+                grams.add(PREFIX_MARK + name.substring(0, 2));
+            }
+        }
+        return grams;
+    }
+
+    private static void addGrams(Set<String> grams, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+            if (i + 1 < text.length()) {
+                grams.add(text.substring(i, i + 2));
+            }
+        }
+    }
+
+    /**
+     * 关键字的gram：一个字时用单字，多个字时用所有相邻两字；前缀查询时开头的gram替换为前缀gram
+     */
+    private static Set<String> queryGrams(String query, String prefixMark) {
+        Set<String> grams = new LinkedHashSet<>();
+        if (query.length() == 1) {
+            grams.add(prefixMark + query);
+            return grams;
+        }
+        for (int i = 0; i + 1 < query.length(); i++) {
+            grams.add(i == 0 ? prefixMark + query.substring(0, 2) : query.substring(i, i + 2));
+        }
+        return grams;
+    }
+
+    /**
+     * 统一大小写并去掉空白字符
+     */
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一页查询结果，ids和ranks一一对应
+     */
+    public static class SearchPage {
+        static final SearchPage EMPTY = new SearchPage(new long[0], new int[0]);
+
+        public final long[] ids;
+        public final int[] ranks;
+
+        public SearchPage(long[] ids, int[] ranks) {
+            this.ids = ids;
+            this.ranks = ranks;
+        }
+    }
+
+    private static class Snapshot {
+        final Map<String, int[]> postings = new ConcurrentHashMap<>();
+        final Map<Long, Integer> ordinals = new ConcurrentHashMap<>();
+        /**
+         * 文档序号 -> 文档，扩容时整体替换
+         */
+        volatile Doc[] docs;
+        int size;
+
+        Snapshot(int capacity) {
+            docs = new Doc[Math.max(16, capacity)];
+        }
+    }
+
+    /**
+     * 索引中的商铺，创建后不再修改
+     */
+    private static class Doc {
+        final long shopId;
+        final String name;
+        final String area;
+        final String normalizedName;
+        final String normalizedArea;
+        final int score;
+        final long changedAt;
+
+        Doc(long shopId, String name, String area, int score, long changedAt) {
+            this.shopId = shopId;
+            this.name = name;
+            this.area = area;
+            this.normalizedName = normalize(name);
+            this.normalizedArea = normalize(area);
+            this.score = score;
+            this.changedAt = changedAt;
+        }
+
+        static Doc of(Shop shop, long changedAt) {
+            int score = shop.getScore() == null ? 0 : Math.max(0, Math.min(shop.getScore(), MAX_SCORE));
+            return new Doc(shop.getId(), shop.getName(), shop.getArea(), score, changedAt);
+        }
+    }
+
+    /**
+     * 构建时收集序号的可变int数组
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+import java.util.function.Function;
+
+/**
+ * 商铺排行榜的排序字段，每个类型每个字段一个ZSET：shop:rank:{metric}:{typeId}
+ */
+public enum ShopRankMetric {
+    /**
+     * 评分
+     */
+    SCORE("score", Shop::getScore),
+    /**
+     * 销量
+     */
+    SOLD("sold", Shop::getSold),
+    /**
+     * 评论数
+     */
+    COMMENTS("comments", Shop::getComments);
+
+    private final String column;
+
+    private final Function<Shop, Integer> getter;
+
+    ShopRankMetric(String column, Function<Shop, Integer> getter) {
+        this.column = column;
+        this.getter = getter;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * 商铺在该排行榜中的分数，字段为空时按0处理
+     */
+    public double valueOf(Shop shop) {
+        Integer value = getter.apply(shop);
+        return value == null ? 0 : value;
+    }
+
+    public String key(Long typeId) {
+        return RedisConstants.SHOP_RANK_KEY + column + ":" + typeId;
+    }
+
+    /**
+     * 根据接口参数查询排序字段，不支持时返回null
+     */
+    public static ShopRankMetric of(String column) {
+        for (ShopRankMetric metric : values()) {
+            if (metric.column.equalsIgnoreCase(column)) {
+                return metric;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,234 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * 雪花算法id生成器：id = 时间戳（毫秒，41位） << 22 | workerId（10位） << 12 | 序列号（12位），
+ * 生成id完全在本地完成。
+ * <p>
+ * workerId从redis租用（SET NX + 过期时间），定时续期，关闭时释放；
+ * 续期失败且租约过期后拒绝生成id，并重新租用workerId，避免与接手该workerId的实例重复。
+ * 时钟回拨不超过阈值时在锁外等待追上，超过阈值时沿用上次的时间戳继续递增序列号；
+ * 同一毫秒的序列号用尽时自旋等待下一毫秒。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.id.strategy", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdWorker {
+
+    private static final long BEGIN_TIMESTAMP = 1672531200000L; //开始时间戳（毫秒）
+    private static final int WORKER_ID_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long MAX_BACKWARD_WAIT_MILLIS = 5;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("id_worker_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final long leaseMillis;
+
+    /**
+     * 实例标识，作为workerId租约的值
+     */
+    private final String instanceId = UUID.randomUUID().toString(true);
+
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private volatile long workerId = -1;
+
+    /**
+     * 本地认为租约有效的截止时间，续期成功时延长
+     */
+    private volatile long leaseValidUntil;
+
+    private long lastTimestamp = -1;
+
+    private long sequence;
+
+    /**
+     * 是否正处于时钟回拨中（沿用上次的时间戳），同一次回拨只告警一次
+     */
+    private boolean clockBackwards;
+
+    private final LongAdder clockBackwardsCount = new LongAdder();
+    private final LongAdder borrowedIds = new LongAdder();
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate,
+                             @Value("${hmdp.id.worker-lease-seconds:30}") long workerLeaseSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(workerLeaseSeconds);
+    }
+
+    @PostConstruct
+    private void init() {
+        acquireWorkerId();
+        long period = Math.max(leaseMillis / 3, 1000);
+        heartbeatExecutor.scheduleWithFixedDelay(this::renewWorkerId, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        heartbeatExecutor.shutdownNow();
+        long id = workerId;
+        if (id >= 0) {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ID_WORKER_KEY + id), instanceId);
+            log.info("释放snowflake workerId={}", id);
+        }
+    }
+
+    /**
+     * 生成id，keyPrefix不参与计算，所有业务共用同一个序列
+     */
+    @Override
+    public long nextId(String keyPrefix) {
+        long id = tryNextId(false);
+        if (id >= 0) {
+            return id;
+        }
+        // 回拨较小，在锁外等待时钟追上，不阻塞其他线程生成id
+        try {
+            Thread.sleep(-id);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return tryNextId(true);
+    }
+
+    /**
+     * @param waited 是否已经等待过时钟回拨
+     * @return 生成的id；回拨不超过等待阈值且尚未等待时返回负的回拨毫秒数，由调用方在锁外等待后重试
+     */
+    private synchronized long tryNextId(boolean waited) {
+        long now = System.currentTimeMillis();
+        if (workerId < 0 || now > leaseValidUntil) {
+            throw new IllegalStateException("snowflake workerId租约已失效");
+        }
+        if (now < lastTimestamp) {
+            // 时钟回拨
+            long offset = lastTimestamp - now;
+            if (!waited && offset <= MAX_BACKWARD_WAIT_MILLIS) {
+                return -offset;
+            }
+            // 回拨较大或等待后仍未追上，沿用上次的时间戳，继续借用序列号
+            if (!clockBackwards) {
+                clockBackwards = true;
+                clockBackwardsCount.increment();
+                log.warn("时钟回拨{}ms，沿用上次的时间戳生成id", offset);
+            }
+            borrowedIds.increment();
+            now = lastTimestamp;
+        }
+        if (clockBackwards && now > lastTimestamp) {
+            clockBackwards = false;
+            log.info("时钟已追上上次的时间戳，恢复使用当前时间生成id");
+        }
+        if (now == lastTimestamp) {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) {
+                // 当前毫秒序列号用尽：正常时自旋等待下一毫秒，时间戳不会超过当前时间；
+                // 回拨期间时钟追不上，只能借用下一毫秒
+                now = clockBackwards ? lastTimestamp + 1 : waitNextMillis(lastTimestamp);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = now;
+        return (now - BEGIN_TIMESTAMP) << (WORKER_ID_BITS + SEQUENCE_BITS)
+                | workerId << SEQUENCE_BITS
+                | sequence;
+    }
+
+    private static long waitNextMillis(long lastTimestamp) {
+        long now = System.currentTimeMillis();
+        while (now <= lastTimestamp) {
+            now = System.currentTimeMillis();
+        }
+        return now;
+    }
+
+    /**
+     * 时钟回拨统计：超过等待阈值的回拨次数、沿用上次时间戳生成的id数量
+     */
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workerId", workerId);
+        stats.put("clockBackwards", clockBackwardsCount.sum());
+        stats.put("borrowedIds", borrowedIds.sum());
+        return stats;
+    }
+
+    /**
+     * 从随机位置开始依次尝试租用workerId
+     */
+    private void acquireWorkerId() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            // 租约从发送命令前开始计算，本地认为有效的时间不会超过redis中key的过期时间
+            long now = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, instanceId, leaseMillis, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                leaseValidUntil = now + leaseMillis;
+                workerId = id;
+                log.info("租用snowflake workerId={}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的snowflake workerId");
+    }
+
+    private void renewWorkerId() {
+        try {
+            long now = System.currentTimeMillis();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId), instanceId, String.valueOf(leaseMillis));
+            if (renewed != null && renewed == 1) {
+                leaseValidUntil = now + leaseMillis;
+                return;
+            }
+            // 租约已被其他实例接手，重新租用
+            log.warn("snowflake workerId={}的租约已丢失，重新租用", workerId);
+            synchronized (this) {
+                workerId = -1;
+                acquireWorkerId();
+            }
+        } catch (Exception e) {
+            log.error("续期snowflake workerId失败", e);
+        }
+    }
+}
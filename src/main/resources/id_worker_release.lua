@@ -0,0 +1,6 @@
+-- 释放workerId租约，只删除本实例持有的key
+-- KEYS[1] workerId的key，ARGV[1] 实例标识
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
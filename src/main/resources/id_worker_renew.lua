@@ -0,0 +1,6 @@
+-- 续期workerId租约，只有仍由本实例持有时才续期
+-- KEYS[1] workerId的key，ARGV[1] 实例标识，ARGV[2] 租期（毫秒）
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
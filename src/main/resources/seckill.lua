@@ -0,0 +1,46 @@
+-- 1.参数列表，key都属于用户所属的库存分片，带有相同的hash tag
+-- 1.1 库存key（hash：stock、begin、end）
+local stockKey = KEYS[1]
+-- 1.2 已购用户key（set）
+local orderKey = KEYS[2]
+-- 1.3 用户id
+local userId = ARGV[1]
+-- 1.4 当前时间（毫秒）
+local now = tonumber(ARGV[2])
+-- 1.5 是否有兄弟分片，1：有
+local hasSiblings = ARGV[3] == '1'
+
+-- 2.判断秒杀券是否已加载到redis
+local info = redis.call('hmget', stockKey, 'stock', 'begin', 'end')
+if (not info[1]) then
+    -- 未加载，返回5
+    return 5
+end
+-- 3.判断秒杀时间
+if (now < tonumber(info[2])) then
+    -- 尚未开始，返回3
+    return 3
+end
+if (now > tonumber(info[3])) then
+    -- 已经结束，返回4
+    return 4
+end
+-- 4.判断用户是否下单
+if (redis.call('sismember', orderKey, userId) == 1) then
+    -- 存在，说明是重复下单，返回2
+    return 2
+end
+-- 5.判断库存是否充足
+if (tonumber(info[1]) > 0) then
+    -- 5.1扣库存，下单（保存用户），订单id和订单消息在获得资格后由调用方生成和发送
+    redis.call('hincrby', stockKey, 'stock', -1)
+    redis.call('sadd', orderKey, userId)
+    return 0
+end
+if (not hasSiblings) then
+    -- 库存不足，返回1
+    return 1
+end
+-- 6.本分片库存耗尽，先占住购买资格，由调用方到兄弟分片扣库存，都没有库存时再释放，返回6
+redis.call('sadd', orderKey, userId)
+return 6
@@ -0,0 +1,9 @@
+-- 合并库存分片的第三步：库存已经加到第一个分片，清除来源分片的转移记录
+local stockKey = KEYS[1]
+local moveId = ARGV[1]
+
+if (redis.call('hget', stockKey, 'moveId') ~= moveId) then
+    return 0
+end
+redis.call('hdel', stockKey, 'moving', 'moveId')
+return 1
@@ -0,0 +1,12 @@
+-- 合并库存分片的第二步：把转移中的库存加到第一个分片，按来源分片记录已加入的转移id，重复执行时不会多加
+local stockKey = KEYS[1]
+local field = 'moved:' .. ARGV[1]
+local moveId = ARGV[2]
+local count = tonumber(ARGV[3])
+
+if (redis.call('hget', stockKey, field) == moveId) then
+    return 0
+end
+redis.call('hincrby', stockKey, 'stock', count)
+redis.call('hset', stockKey, field, moveId)
+return 1
@@ -0,0 +1,21 @@
+-- 合并库存分片的第一步：从一个分片中取走最多ARGV[1]个库存，在同一个hash中记录转移中的数量和转移id，
+-- 加到第一个分片之前失败时，下次合并根据记录继续转移，库存不会丢失
+-- 返回 {转移数量, 转移id}，上次的转移未完成时返回上次的记录
+local stockKey = KEYS[1]
+local max = tonumber(ARGV[1])
+local moveId = ARGV[2]
+
+-- 1.上次的转移未完成，先完成上次的
+local moving = redis.call('hmget', stockKey, 'moving', 'moveId')
+if (moving[1]) then
+    return {tonumber(moving[1]), moving[2]}
+end
+-- 2.取走库存并记录
+local stock = tonumber(redis.call('hget', stockKey, 'stock') or '0')
+if (stock <= 0) then
+    return {0, ''}
+end
+local taken = math.min(stock, max)
+redis.call('hincrby', stockKey, 'stock', -taken)
+redis.call('hmset', stockKey, 'moving', taken, 'moveId', moveId)
+return {taken, moveId}
@@ -0,0 +1,17 @@
+-- 归还秒杀库存（补货、取消订单等）
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local count = tonumber(ARGV[1])
+-- 取消订单时为下单用户id，补货时为空
+local userId = ARGV[2]
+
+-- 1.取消订单时同时归还购买资格
+if (userId ~= '') then
+    redis.call('srem', orderKey, userId)
+end
+-- 2.库存尚未加载到redis时不写入，由下次加载读取数据库中的库存
+if (redis.call('hexists', stockKey, 'stock') == 0) then
+    return 0
+end
+redis.call('hincrby', stockKey, 'stock', count)
+return 1
@@ -0,0 +1,24 @@
+-- 下单落库失败时回滚redis中的预扣，key都属于用户所属的库存分片，库存归还到该分片
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+-- 只归还库存时记录已回滚的订单id，避免消息重复投递时重复归还
+local rollbackKey = KEYS[3]
+local userId = ARGV[1]
+-- 1：用户重复购买，数据库已有该用户的订单，保留购买资格只归还库存；0：同时归还库存和购买资格
+local keepBuyer = ARGV[2]
+local orderId = ARGV[3]
+
+if (keepBuyer == '1') then
+    if (redis.call('sadd', rollbackKey, orderId) == 1) then
+        redis.call('expire', rollbackKey, 86400)
+        redis.call('hincrby', stockKey, 'stock', 1)
+        return 1
+    end
+    return 0
+end
+-- 只有确实预扣过的用户才归还库存，避免重复回滚
+if (redis.call('srem', orderKey, userId) == 1) then
+    redis.call('hincrby', stockKey, 'stock', 1)
+    return 1
+end
+return 0
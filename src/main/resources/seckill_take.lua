@@ -0,0 +1,12 @@
+-- 从一个库存分片中扣减库存，最多扣减ARGV[1]个，返回实际扣减的数量
+-- 用于用户所属分片耗尽后从兄弟分片扣库存
+local stockKey = KEYS[1]
+local max = tonumber(ARGV[1])
+
+local stock = tonumber(redis.call('hget', stockKey, 'stock') or '0')
+if (stock <= 0) then
+    return 0
+end
+local taken = math.min(stock, max)
+redis.call('hincrby', stockKey, 'stock', -taken)
+return taken
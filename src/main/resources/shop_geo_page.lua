@@ -0,0 +1,16 @@
+-- 按距离由近到远查询附近的商铺，只返回当前页：id1, 距离1, id2, 距离2...
+local key = KEYS[1]
+local x = ARGV[1]
+local y = ARGV[2]
+local radius = ARGV[3]
+local from = tonumber(ARGV[4])
+local to = tonumber(ARGV[5])
+
+-- GEOSEARCH只能限制数量，不能跳过前几页，在脚本内截取，前几页的数据不返回给应用
+local result = redis.call('geosearch', key, 'fromlonlat', x, y, 'byradius', radius, 'm', 'asc', 'count', to, 'withdist')
+local page = {}
+for i = from + 1, #result do
+    page[#page + 1] = result[i][1]
+    page[#page + 1] = result[i][2]
+end
+return page
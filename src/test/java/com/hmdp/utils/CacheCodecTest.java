@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import com.hmdp.entity.Shop;
+import lombok.Data;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheCodecTest {
+
+    private static final RedisSerializer<Object> JDK_SERIALIZER = RedisSerializer.java();
+
+    private final BinaryCacheCodec binaryCodec = new BinaryCacheCodec(256, true);
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    private static Shop shop(long id, String name) {
+        return new Shop().setId(id).setName(name).setTypeId(1L).setArea("大关").setX(120.15).setY(30.33)
+                .setScore(47).setSold(1000);
+    }
+
+    private static void assertShop(Shop expected, Object actual) {
+        Shop shop = (Shop) actual;
+        assertEquals(expected.getId(), shop.getId());
+        assertEquals(expected.getName(), shop.getName());
+        assertEquals(expected.getArea(), shop.getArea());
+        assertEquals(expected.getX(), shop.getX());
+        assertEquals(expected.getScore(), shop.getScore());
+    }
+
+    @Test
+    void binaryRoundTripKeepsHeaderFields() {
+        Shop shop = shop(1, "103茶餐厅");
+        byte[] bytes = binaryCodec.encode(new CacheEntry(shop, 1000L, 2000L, 30L));
+
+        CacheEntry entry = binaryCodec.decode(bytes, Shop.class, true);
+
+        assertShop(shop, entry.getData());
+        assertEquals(1000L, entry.getLogicalExpireAt());
+        assertEquals(2000L, entry.getExpireAt());
+        assertEquals(30L, entry.getComputeMillis());
+    }
+
+    @Test
+    void binaryCompressesLargeValues() {
+        Shop shop = shop(2, StrUtil.repeat("茶餐厅", 200));
+        byte[] bytes = binaryCodec.encode(new CacheEntry(shop, 0));
+        byte[] plain = new BinaryCacheCodec(0, true).encode(new CacheEntry(shop, 0));
+
+        assertTrue(bytes.length < plain.length);
+        assertShop(shop, binaryCodec.decode(bytes, Shop.class, false).getData());
+        assertShop(shop, binaryCodec.decode(plain, Shop.class, false).getData());
+    }
+
+    @Test
+    void binaryNullMarkerAndArray() {
+        CacheEntry empty = binaryCodec.decode(binaryCodec.encode(new CacheEntry(null, 0)), Shop.class, false);
+        assertNotNull(empty);
+        assertNull(empty.getData());
+
+        Shop[] shops = {shop(1, "a"), shop(2, "b")};
+        Shop[] decoded = (Shop[]) binaryCodec.decode(binaryCodec.encode(new CacheEntry(shops, 0)), Shop[].class, false)
+                .getData();
+        assertEquals(2, decoded.length);
+        assertShop(shops[1], decoded[1]);
+    }
+
+    @Test
+    void binaryReadsLegacyJsonOnlyWhenEnabled() {
+        Shop shop = shop(3, "开乐迪KTV");
+        byte[] legacy = JDK_SERIALIZER.serialize(new JSONObject(shop).toString());
+
+        assertShop(shop, binaryCodec.decode(legacy, Shop.class, false).getData());
+        assertNull(new BinaryCacheCodec(256, false).decode(legacy, Shop.class, false));
+        assertNull(binaryCodec.decode(new byte[]{1, 2, 3}, Shop.class, false));
+    }
+
+    @Test
+    void jsonTtlEnvelopeRoundTrip() {
+        Shop shop = shop(4, "海底捞");
+        CacheEntry entry = jsonCodec.decode(jsonCodec.encode(new CacheEntry(shop, 0, 5000L, 12L)), Shop.class, false);
+
+        assertShop(shop, entry.getData());
+        assertEquals(5000L, entry.getExpireAt());
+        assertEquals(12L, entry.getComputeMillis());
+    }
+
+    @Test
+    void jsonPlainValueIsNotAnEnvelope() {
+        // 原有格式没有包装，也没有提前刷新需要的字段
+        Shop shop = shop(5, "data");
+        CacheEntry entry = jsonCodec.decode(JDK_SERIALIZER.serialize(new JSONObject(shop).toString()), Shop.class, false);
+
+        assertShop(shop, entry.getData());
+        assertEquals(0, entry.getExpireAt());
+
+        // 字段名与包装相同但含有其他字段的对象按原始数据读取
+        JSONObject lookalike = new JSONObject().set("data", "x").set("expireAt", 1L).set("name", "y");
+        Envelope decoded = (Envelope) jsonCodec.decode(JDK_SERIALIZER.serialize(lookalike.toString()), Envelope.class,
+                false).getData();
+        assertEquals("x", decoded.getData());
+        assertEquals("y", decoded.getName());
+    }
+
+    @Test
+    void jsonLogicalExpireRoundTripAndMisses() {
+        Shop shop = shop(6, "星巴克");
+        long expireAt = System.currentTimeMillis() / 1000 * 1000 + 60000;
+        CacheEntry entry = jsonCodec.decode(jsonCodec.encode(new CacheEntry(shop, expireAt, 0, 7L)), Shop.class, true);
+
+        assertShop(shop, entry.getData());
+        assertEquals(expireAt, entry.getLogicalExpireAt());
+        assertEquals(7L, entry.getComputeMillis());
+
+        // 没有expireTime或不是对象的数据按未命中处理
+        byte[] ttlFormat = jsonCodec.encode(new CacheEntry(shop, 0, 5000L, 0));
+        assertNull(jsonCodec.decode(ttlFormat, Shop.class, true));
+        assertNull(jsonCodec.decode(JDK_SERIALIZER.serialize("[1,2]"), Shop.class, true));
+    }
+
+    @Test
+    void jdkSerializedDetection() {
+        assertTrue(JsonCacheCodec.isJdkSerialized(JDK_SERIALIZER.serialize("x")));
+        assertFalse(JsonCacheCodec.isJdkSerialized(binaryCodec.encode(new CacheEntry(null, 0))));
+    }
+
+    @Data
+    public static class Envelope {
+        private String data;
+        private Long expireAt;
+        private String name;
+    }
+}
@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PageCursorTest {
+
+    @Test
+    void encodeDecodeRoundTrip() {
+        String cursor = PageCursor.encode(12.5, 7L);
+
+        assertArrayEquals(new String[]{"12.5", "7"}, PageCursor.decode(cursor, 2));
+        assertEquals(7L, PageCursor.decodeId(PageCursor.encode(7L)));
+        assertNull(PageCursor.decodeId(""));
+    }
+
+    @Test
+    void invalidCursorThrows() {
+        String cursor = PageCursor.encode(1, 2);
+
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(cursor, 3));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decodeId(PageCursor.encode("abc")));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decodeId(cursor));
+    }
+
+    @Test
+    void taggedCursorFromOtherModeRestarts() {
+        String cursor = PageCursor.encode("db", 7L);
+
+        assertArrayEquals(new String[]{"7"}, PageCursor.decode(cursor, "db", 1));
+        assertNull(PageCursor.decode(cursor, "index", 2));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(cursor, "db", 2));
+    }
+
+    @Test
+    void nextTrimsExtraRow() {
+        List<Long> rows = new ArrayList<>(Arrays.asList(1L, 2L, 3L, 4L));
+
+        String cursor = PageCursor.next(rows, 3, id -> PageCursor.encode(id));
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), rows);
+        assertEquals(3L, PageCursor.decodeId(cursor));
+        assertNull(PageCursor.next(rows, 3, id -> PageCursor.encode(id)));
+    }
+}
@@ -0,0 +1,139 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisKeyCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RedisBloomFilterTest {
+
+    private static final long EXPECTED_INSERTIONS = 1000;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private RedisConnection connection;
+
+    private RedisStringCommands stringCommands;
+
+    /**
+     * redis位图的内容，SETBIT的第i位是第i/8个字节从高到低第i%8位
+     */
+    private byte[] redisBitmap;
+
+    private final List<Long> setBitOffsets = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        connection = mock(RedisConnection.class);
+        stringCommands = mock(RedisStringCommands.class);
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        when(connection.keyCommands()).thenReturn(mock(RedisKeyCommands.class));
+        when(stringCommands.setBit(any(byte[].class), anyLong(), eq(true))).thenAnswer(invocation -> {
+            setBitOffsets.add(invocation.getArgument(1));
+            return false;
+        });
+        when(stringCommands.get(any(byte[].class))).thenAnswer(invocation -> redisBitmap);
+        when(stringCommands.set(any(byte[].class), any(byte[].class))).thenAnswer(invocation -> {
+            redisBitmap = invocation.getArgument(1);
+            return true;
+        });
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+            return Collections.emptyList();
+        });
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenAnswer(invocation ->
+                ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+    }
+
+    private RedisBloomFilter newFilter() {
+        return new RedisBloomFilter(stringRedisTemplate, mock(RedisMessageListenerContainer.class), "test",
+                EXPECTED_INSERTIONS, 0.01);
+    }
+
+    private static boolean redisBit(byte[] bitmap, long offset) {
+        return (bitmap[(int) (offset >>> 3)] & (0x80 >>> (offset & 7))) != 0;
+    }
+
+    @Test
+    void rebuildWritesRedisCompatibleBitmap() {
+        RedisBloomFilter filter = newFilter();
+        filter.rebuild(Arrays.asList(1L, 2L, 3L));
+        // 1重建写入的位图与put时SETBIT的位一致
+        filter.put(1L);
+        assertFalse(setBitOffsets.isEmpty());
+        for (long offset : setBitOffsets) {
+            assertTrue(redisBit(redisBitmap, offset), "offset " + offset);
+        }
+        // 2位图长度为numBits / 8，numBits是64的整数倍
+        assertEquals(0, redisBitmap.length % 8);
+    }
+
+    @Test
+    void loadReadsBitsSetByRedis() {
+        RedisBloomFilter writer = newFilter();
+        writer.rebuild(Collections.emptyList());
+        byte[] bitmap = new byte[redisBitmap.length];
+        // 按redis SETBIT的规则设置put写入的位
+        writer.put(42L);
+        for (long offset : setBitOffsets) {
+            bitmap[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+        }
+        redisBitmap = bitmap;
+
+        RedisBloomFilter reader = newFilter();
+        assertTrue(reader.mightContain(42L), "加载前不拦截");
+        assertTrue(reader.load());
+        assertTrue(reader.mightContain(42L));
+        int falsePositives = 0;
+        for (long id = 1000; id < 2000; id++) {
+            if (reader.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 10, "只有一个元素时几乎不会误判：" + falsePositives);
+    }
+
+    @Test
+    void loadRejectsBitmapOfDifferentSize() {
+        redisBitmap = new byte[8];
+        assertFalse(newFilter().load());
+        redisBitmap = null;
+        assertFalse(newFilter().load());
+    }
+
+    @Test
+    void putKeepsLocalBitsWhenRedisFails() {
+        RedisBloomFilter filter = newFilter();
+        filter.rebuild(Collections.emptyList());
+        assertFalse(filter.mightContain(7L));
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenThrow(new IllegalStateException("redis不可用"));
+        doThrow(new IllegalStateException("redis不可用")).when(stringRedisTemplate)
+                .convertAndSend(anyString(), anyString());
+
+        filter.put(7L);
+
+        assertTrue(filter.mightContain(7L));
+    }
+}
@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RedisCircuitBreakerTest {
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private RedisCircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        breaker = new RedisCircuitBreaker();
+        ReflectionTestUtils.setField(breaker, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(breaker, "enabled", true);
+        ReflectionTestUtils.setField(breaker, "windowSeconds", 10);
+        ReflectionTestUtils.setField(breaker, "minimumCalls", 20L);
+        ReflectionTestUtils.setField(breaker, "failureRateThreshold", 0.5);
+        ReflectionTestUtils.setField(breaker, "slowCallMillis", 1000L);
+        ReflectionTestUtils.setField(breaker, "slowCallRateThreshold", 0.8);
+        ReflectionTestUtils.setField(breaker, "openMillis", 0L);
+        ReflectionTestUtils.setField(breaker, "halfOpenCalls", 3);
+        ReflectionTestUtils.invokeMethod(breaker, "init");
+    }
+
+    private Object state() {
+        return breaker.getStats().get("state");
+    }
+
+    private void succeed(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.execute(() -> "ok");
+        }
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertThrows(CacheUnavailableException.class, () -> breaker.execute(() -> {
+                throw new IllegalStateException("redis超时");
+            }));
+        }
+    }
+
+    private void trip() {
+        succeed(10);
+        fail(10);
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    void staysClosedBelowMinimumCalls() {
+        fail(19);
+        assertFalse(breaker.isOpen());
+        assertEquals(RedisCircuitBreaker.State.CLOSED, state());
+    }
+
+    @Test
+    void opensWhenFailureRateReached() {
+        succeed(12);
+        fail(9);
+        assertFalse(breaker.isOpen(), "失败率9/21未达到50%");
+        fail(1);
+        assertFalse(breaker.isOpen(), "失败率10/22未达到50%");
+        fail(2);
+        assertTrue(breaker.isOpen(), "失败率12/24");
+        assertEquals(1L, breaker.getStats().get("trips"));
+    }
+
+    @Test
+    void opensOnSlowCalls() {
+        ReflectionTestUtils.setField(breaker, "slowCallMillis", 0L);
+        succeed(20);
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    void rejectsWithoutCallingRedisWhenOpen() {
+        trip();
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(CacheUnavailableException.class, () -> breaker.execute(calls::incrementAndGet));
+        assertEquals(0, calls.get());
+        assertEquals(1L, breaker.getStats().get("rejected"));
+    }
+
+    @Test
+    void probeFailureKeepsOpen() {
+        trip();
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenThrow(new IllegalStateException("连接失败"));
+        breaker.probe();
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    void probeWaitsForOpenMillis() {
+        ReflectionTestUtils.setField(breaker, "openMillis", 60000L);
+        trip();
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenReturn("PONG");
+        breaker.probe();
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    void halfOpenClosesAfterSuccessfulCalls() {
+        trip();
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenReturn("PONG");
+        breaker.probe();
+        assertEquals(RedisCircuitBreaker.State.HALF_OPEN, state());
+
+        succeed(2);
+        assertEquals(RedisCircuitBreaker.State.HALF_OPEN, state());
+        succeed(1);
+        assertEquals(RedisCircuitBreaker.State.CLOSED, state());
+        // 关闭后窗口清空，重新累计
+        fail(19);
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    void halfOpenReopensOnFailure() {
+        trip();
+        when(stringRedisTemplate.execute(any(RedisCallback.class))).thenReturn("PONG");
+        breaker.probe();
+
+        succeed(1);
+        fail(1);
+
+        assertTrue(breaker.isOpen());
+        assertEquals(2L, breaker.getStats().get("trips"));
+    }
+
+    @Test
+    void disabledOnlyWrapsFailures() {
+        ReflectionTestUtils.setField(breaker, "enabled", false);
+        fail(100);
+        assertFalse(breaker.isOpen());
+        assertEquals("ok", breaker.execute(() -> "ok"));
+    }
+}
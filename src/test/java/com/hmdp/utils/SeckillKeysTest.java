@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SeckillKeysTest {
+
+    @Test
+    void shardKeysShareHashTag() {
+        String tag = "{10:3}";
+
+        assertTrue(SeckillKeys.stock(10L, 3).endsWith(tag));
+        assertTrue(SeckillKeys.order(10L, 3).endsWith(tag));
+        assertTrue(SeckillKeys.rollback(10L, 3).endsWith(tag));
+        assertTrue(SeckillKeys.stream(10L, 3).endsWith(tag));
+    }
+
+    @Test
+    void parseStreamRoundTrip() {
+        assertArrayEquals(new long[]{10L, 3L}, SeckillKeys.parseStream(SeckillKeys.stream(10L, 3)));
+        assertThrows(IllegalArgumentException.class, () -> SeckillKeys.parseStream(SeckillKeys.stock(10L, 3)));
+        assertThrows(IllegalArgumentException.class, () -> SeckillKeys.parseStream(RedisConstants.SECKILL_ORDER_STREAM + ":{a:b}"));
+        assertThrows(IllegalArgumentException.class, () -> SeckillKeys.parseStream(RedisConstants.SECKILL_ORDER_STREAM));
+    }
+
+    @Test
+    void homeShardIsStableAndNonNegative() {
+        assertEquals(0, SeckillKeys.home(7L, 1));
+        assertEquals(3, SeckillKeys.home(7L, 4));
+        assertEquals(1, SeckillKeys.home(-7L, 4));
+    }
+}
@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.ShopGeoIndex.GeoPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class ShopGeoIndexTest {
+
+    private static final double X = 120.149993;
+    private static final double Y = 30.334229;
+    private static final double RADIUS = 5000;
+
+    private ShopGeoIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopGeoIndex();
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(index, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "cellDegrees", 0.01);
+        ReflectionTestUtils.setField(index, "queryCellDegrees", 0.001);
+        ReflectionTestUtils.setField(index, "memoSize", 1000);
+        ReflectionTestUtils.setField(index, "memoTtlSeconds", 60L);
+        ReflectionTestUtils.invokeMethod(index, "init");
+        // 在查询点附近随机分布200个商铺，部分在半径之外
+        Random random = new Random(1);
+        List<Shop> shops = new ArrayList<>();
+        for (long id = 1; id <= 200; id++) {
+            shops.add(new Shop().setId(id).setTypeId(1L)
+                    .setX(X + random.nextDouble() * 0.12 - 0.06)
+                    .setY(Y + random.nextDouble() * 0.12 - 0.06));
+        }
+        index.rebuild(shops, System.currentTimeMillis());
+    }
+
+    private static List<Long> ids(GeoPage page) {
+        List<Long> ids = new ArrayList<>();
+        for (long id : page.ids) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Test
+    void pagesConcatenateToFullResult() {
+        GeoPage all = index.searchExact(1L, X, Y, RADIUS, 0, 1000);
+        assertTrue(all.ids.length > 20 && all.ids.length < 200);
+        for (int i = 1; i < all.distances.length; i++) {
+            assertTrue(all.distances[i - 1] <= all.distances[i]);
+        }
+        // 1按下标分页
+        List<Long> paged = new ArrayList<>();
+        for (int from = 0; from < all.ids.length; from += 7) {
+            paged.addAll(ids(index.search(1L, X, Y, RADIUS, ShopGeoIndex.NO_CURSOR, 0, from, from + 7)));
+        }
+        assertEquals(ids(all), paged);
+        // 2按游标分页
+        List<Long> cursored = new ArrayList<>();
+        double afterDistance = ShopGeoIndex.NO_CURSOR;
+        long afterId = 0;
+        while (true) {
+            GeoPage page = index.search(1L, X, Y, RADIUS, afterDistance, afterId, 0, 7);
+            cursored.addAll(ids(page));
+            if (page.ids.length < 7) {
+                break;
+            }
+            afterDistance = page.distances[page.ids.length - 1];
+            afterId = page.ids[page.ids.length - 1];
+        }
+        assertEquals(ids(all), cursored);
+    }
+
+    @Test
+    void memoizedSearchUsesCallerPosition() {
+        // 同一个小格子内的不同坐标共用候选商铺缓存，距离和顺序仍按各自的坐标计算
+        double[][] points = {{X, Y}, {X + 0.0009, Y + 0.0009}, {X + 0.0004, Y}};
+        for (double[] point : points) {
+            GeoPage exact = index.searchExact(1L, point[0], point[1], RADIUS, 0, 1000);
+            GeoPage memoized = index.search(1L, point[0], point[1], RADIUS, ShopGeoIndex.NO_CURSOR, 0, 0, 1000);
+            assertArrayEquals(exact.ids, memoized.ids);
+            assertArrayEquals(exact.distances, memoized.distances, 1e-9);
+        }
+    }
+
+    @Test
+    void outOfRangePageIsEmpty() {
+        assertEquals(0, index.search(1L, X, Y, RADIUS, ShopGeoIndex.NO_CURSOR, 0, 1000, 1005).ids.length);
+        assertEquals(0, index.search(2L, X, Y, RADIUS, ShopGeoIndex.NO_CURSOR, 0, 0, 5).ids.length);
+        // 负的下标按第一页处理
+        assertArrayEquals(index.searchExact(1L, X, Y, RADIUS, 0, 5).ids,
+                index.searchExact(1L, X, Y, RADIUS, -10, 5).ids);
+    }
+
+    @Test
+    void updateMovesShopBetweenCellsAndTypes() {
+        long nearest = index.searchExact(1L, X, Y, RADIUS, 0, 1).ids[0];
+        // 1移动到很远的地方，不再出现在结果中
+        index.update(nearest, 1L, X + 1, Y + 1);
+        assertFalse(ids(index.search(1L, X, Y, RADIUS, ShopGeoIndex.NO_CURSOR, 0, 0, 1000)).contains(nearest));
+        // 2移动到查询点，排在第一
+        index.update(nearest, 1L, X, Y);
+        GeoPage page = index.search(1L, X, Y, RADIUS, ShopGeoIndex.NO_CURSOR, 0, 0, 1);
+        assertEquals(nearest, page.ids[0]);
+        assertEquals(0, page.distances[0], 1e-6);
+        // 3修改类型
+        index.update(nearest, 2L, X, Y);
+        assertFalse(ids(index.search(1L, X, Y, RADIUS, ShopGeoIndex.NO_CURSOR, 0, 0, 1000)).contains(nearest));
+        assertEquals(nearest, index.search(2L, X, Y, RADIUS, ShopGeoIndex.NO_CURSOR, 0, 0, 1).ids[0]);
+        // 4坐标为空时移除
+        index.update(nearest, 2L, null, null);
+        assertEquals(0, index.search(2L, X, Y, RADIUS, ShopGeoIndex.NO_CURSOR, 0, 0, 1).ids.length);
+    }
+
+    @Test
+    void polarQueryScansBoundedCells() {
+        assertFalse(ShopGeoIndex.isValidCoordinate(X, 89.9));
+        assertFalse(ShopGeoIndex.isValidCoordinate(181, Y));
+        assertTrue(ShopGeoIndex.isValidCoordinate(-180, -85.05));
+        // 格子范围被限制在经纬度范围内，不会扫描上百万个格子
+        assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> index.searchExact(1L, X, 90, RADIUS, 0, 5));
+    }
+}
@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.ShopNameIndex.SearchPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class ShopNameIndexTest {
+
+    private ShopNameIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopNameIndex();
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(index, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.invokeMethod(index, "init");
+        List<Shop> shops = new ArrayList<>();
+        shops.add(shop(1, "茶餐厅", "大关", 40));
+        shops.add(shop(2, "茶餐厅小馆", "大关", 30));
+        shops.add(shop(3, "港式茶餐厅", "拱宸桥", 45));
+        shops.add(shop(4, "咖啡馆", "茶餐厅广场", 50));
+        shops.add(shop(5, "海底捞", "大关", 49));
+        // 评分相同的一批商铺，排序值相同时按id排序
+        for (long id = 100; id > 70; id--) {
+            shops.add(shop(id, "茶餐厅分店" + id, "运河上街", 35));
+        }
+        index.rebuild(shops, System.currentTimeMillis());
+    }
+
+    private static Shop shop(long id, String name, String area, int score) {
+        return new Shop().setId(id).setName(name).setArea(area).setScore(score);
+    }
+
+    private static List<Long> ids(SearchPage page) {
+        List<Long> ids = new ArrayList<>();
+        for (long id : page.ids) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Test
+    void ordersByTierThenScoreThenId() {
+        List<Long> all = ids(index.search("茶餐厅", ShopNameIndex.NO_CURSOR, 0, 0, 100));
+
+        assertEquals(34, all.size());
+        // 名称相等、前缀（评分35的分店在评分30之前）、包含、商圈包含
+        assertEquals(1L, all.get(0));
+        assertEquals(71L, all.get(1));
+        assertEquals(100L, all.get(30));
+        assertEquals(Arrays.asList(2L, 3L, 4L), all.subList(31, 34));
+        assertFalse(all.contains(5L));
+        // 关键字中的空格和大小写不影响结果
+        assertEquals(all, ids(index.search(" 茶 餐厅 ", ShopNameIndex.NO_CURSOR, 0, 0, 100)));
+    }
+
+    @Test
+    void pagesConcatenateToFullResult() {
+        List<Long> all = ids(index.search("茶餐厅", ShopNameIndex.NO_CURSOR, 0, 0, 100));
+        // 1按下标分页
+        List<Long> paged = new ArrayList<>();
+        for (int from = 0; from < all.size(); from += 4) {
+            paged.addAll(ids(index.search("茶餐厅", ShopNameIndex.NO_CURSOR, 0, from, from + 4)));
+        }
+        assertEquals(all, paged);
+        assertEquals(0, index.search("茶餐厅", ShopNameIndex.NO_CURSOR, 0, 100, 104).ids.length);
+        // 2按游标分页，游标落在排序值相同的一段中间
+        List<Long> cursored = new ArrayList<>();
+        int afterRank = ShopNameIndex.NO_CURSOR;
+        long afterId = 0;
+        while (true) {
+            SearchPage page = index.search("茶餐厅", afterRank, afterId, 0, 4);
+            cursored.addAll(ids(page));
+            if (page.ids.length < 4) {
+                break;
+            }
+            afterRank = page.ranks[page.ids.length - 1];
+            afterId = page.ids[page.ids.length - 1];
+        }
+        assertEquals(all, cursored);
+    }
+
+    @Test
+    void updateChangesNameAndScore() {
+        index.update(shop(5, "茶餐厅", "大关", 49));
+        assertEquals(Arrays.asList(5L, 1L), ids(index.search("茶餐厅", ShopNameIndex.NO_CURSOR, 0, 0, 2)));
+
+        index.update(shop(1, "面馆", "大关", 40));
+        List<Long> all = ids(index.search("茶餐厅", ShopNameIndex.NO_CURSOR, 0, 0, 100));
+        assertFalse(all.contains(1L));
+        assertTrue(ids(index.search("面馆", ShopNameIndex.NO_CURSOR, 0, 0, 10)).contains(1L));
+    }
+
+    @Test
+    void suggestReturnsDistinctPrefixMatchesByScore() {
+        List<String> names = index.suggest("茶餐", 3);
+
+        assertEquals(3, names.size());
+        assertEquals("茶餐厅", names.get(0));
+        // 评分相同的名称不保证顺序
+        assertTrue(names.get(1).startsWith("茶餐厅分店"));
+        assertTrue(index.suggest("港式", 10).contains("港式茶餐厅"));
+        assertTrue(index.suggest("餐厅", 10).isEmpty());
+    }
+}
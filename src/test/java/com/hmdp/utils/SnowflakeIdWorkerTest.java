@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SnowflakeIdWorkerTest {
+
+    private static final long BEGIN_TIMESTAMP = 1672531200000L;
+
+    private static final long WORKER_ID = 5;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private SnowflakeIdWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        worker = new SnowflakeIdWorker(stringRedisTemplate, 30);
+        ReflectionTestUtils.setField(worker, "workerId", WORKER_ID);
+        ReflectionTestUtils.setField(worker, "leaseValidUntil", Long.MAX_VALUE);
+    }
+
+    private static long timestampOf(long id) {
+        return (id >>> 22) + BEGIN_TIMESTAMP;
+    }
+
+    @Test
+    void idLayout() {
+        long before = System.currentTimeMillis();
+        long id = worker.nextId("order");
+        long after = System.currentTimeMillis();
+
+        assertTrue(timestampOf(id) >= before && timestampOf(id) <= after);
+        assertEquals(WORKER_ID, id >>> 12 & 1023);
+        assertEquals(0, id & 4095);
+    }
+
+    @Test
+    void sequenceOverflowWaitsForNextMillisecond() {
+        // 远超每毫秒4096个，序列号必然用尽
+        Set<Long> ids = new HashSet<>();
+        long last = 0;
+        for (int i = 0; i < 50000; i++) {
+            long id = worker.nextId("order");
+            assertTrue(id > last);
+            assertTrue(timestampOf(id) <= System.currentTimeMillis(), "时间戳不能超过当前时间");
+            ids.add(id);
+            last = id;
+        }
+        assertEquals(50000, ids.size());
+        // 序列号用尽不是时钟回拨
+        assertEquals(0L, worker.getStats().get("clockBackwards"));
+        assertEquals(0L, worker.getStats().get("borrowedIds"));
+    }
+
+    @Test
+    void smallClockRegressionWaits() {
+        long lastTimestamp = System.currentTimeMillis() + 3;
+        ReflectionTestUtils.setField(worker, "lastTimestamp", lastTimestamp);
+
+        long id = worker.nextId("order");
+
+        assertTrue(timestampOf(id) >= lastTimestamp);
+    }
+
+    @Test
+    void largeClockRegressionBorrowsLastTimestamp() {
+        long lastTimestamp = System.currentTimeMillis() + 10000;
+        ReflectionTestUtils.setField(worker, "lastTimestamp", lastTimestamp);
+
+        long first = worker.nextId("order");
+        long second = worker.nextId("order");
+
+        assertEquals(lastTimestamp, timestampOf(first));
+        assertTrue(second > first);
+        // 同一次回拨只统计一次
+        assertEquals(1L, worker.getStats().get("clockBackwards"));
+        assertEquals(2L, worker.getStats().get("borrowedIds"));
+    }
+
+    @Test
+    void expiredLeaseRejectsIds() {
+        ReflectionTestUtils.setField(worker, "leaseValidUntil", 0L);
+        assertThrows(IllegalStateException.class, () -> worker.nextId("order"));
+    }
+
+    @Test
+    void leaseStartsBeforeSetNx() {
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, String> ops = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(ops);
+        AtomicLong calledAt = new AtomicLong();
+        when(ops.setIfAbsent(anyString(), anyString(), anyLong(), eq(TimeUnit.MILLISECONDS))).thenAnswer(invocation -> {
+            calledAt.set(System.currentTimeMillis());
+            // 模拟redis响应慢
+            Thread.sleep(50);
+            return true;
+        });
+
+        ReflectionTestUtils.invokeMethod(worker, "acquireWorkerId");
+
+        long leaseValidUntil = (long) ReflectionTestUtils.getField(worker, "leaseValidUntil");
+        assertTrue(leaseValidUntil <= calledAt.get() + TimeUnit.SECONDS.toMillis(30));
+    }
+}